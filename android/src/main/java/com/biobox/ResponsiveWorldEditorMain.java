@@ -6,8 +6,11 @@ import com.badlogic.gdx.graphics.GL20;
 import com.badlogic.gdx.graphics.g2d.BitmapFont;
 import com.badlogic.gdx.graphics.g2d.SpriteBatch;
 import com.badlogic.gdx.graphics.glutils.ShapeRenderer;
+import com.biobox.platform.AndroidPlatformAdapter;
 import com.biobox.ui.ResponsiveWorldEditorUI;
 
+import java.io.File;
+
 /**
  * Classe principal para a versão responsiva do editor de mundos RPG,
  * otimizada para dispositivos Android.
@@ -29,6 +32,12 @@ public class ResponsiveWorldEditorMain extends ApplicationAdapter {
     // Constantes
     private static final int GRID_WIDTH = 100;
     private static final int GRID_HEIGHT = 70;
+    // Máximo de threads para gerar camadas de ruído (poupa bateria e calor)
+    private static final int MAX_GENERATION_THREADS = 2;
+    // Memória para mundos gerados recentemente; os mais antigos vão para o disco
+    private static final long WORLD_CACHE_BUDGET = 16L * 1024 * 1024;
+    // Disco para os que foram para lá; os menos usados são apagados além disso
+    private static final long WORLD_SPILL_BUDGET = 32L * 1024 * 1024;
     
     @Override
     public void create() {
@@ -44,6 +53,8 @@ public class ResponsiveWorldEditorMain extends ApplicationAdapter {
             // Inicializar componentes do mundo
             grid = new SquareGrid(GRID_WIDTH, GRID_HEIGHT);
             worldGenerator = new BiomeGenerator();
+            worldGenerator.setParallelism(Math.min(MAX_GENERATION_THREADS,
+                Runtime.getRuntime().availableProcessors()));
             tileRenderer = new SquareTileRenderer(grid, shapeRenderer, batch);
             
             // Criar UI responsiva
@@ -55,13 +66,15 @@ public class ResponsiveWorldEditorMain extends ApplicationAdapter {
                 tileRenderer,
                 worldGenerator
             );
+            editorUI.setWorldCache(new WorldCache(WORLD_CACHE_BUDGET,
+                new File(new AndroidPlatformAdapter().getStoragePath(), "world-cache"), WORLD_SPILL_BUDGET));
             
             // Definir o processador de entrada
             Gdx.input.setInputProcessor(editorUI.getInputProcessor());
             
-            // Gerar mundo inicial
-            worldGenerator.generateWorld(grid, BiomeGenerator.WorldType.CLASSIC);
-            tileRenderer.markDirty();
+            // Gerar mundo inicial em segundo plano, como os demais, para que
+            // a UI saiba qual mundo está exibindo (e possa reclassificá-lo)
+            editorUI.generateWorld(BiomeGenerator.WorldType.CLASSIC.ordinal());
             
             Gdx.app.log("ResponsiveWorldEditor", "Inicialização concluída com sucesso");
         } catch (Exception e) {
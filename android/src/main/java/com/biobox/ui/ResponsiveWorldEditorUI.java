@@ -22,8 +22,12 @@ import com.badlogic.gdx.utils.viewport.Viewport;
 
 import com.biobox.BiomeType;
 import com.biobox.BiomeGenerator;
+import com.biobox.DoubleBufferedGrid;
+import com.biobox.EditJournal;
+import com.biobox.GenerationProgress;
 import com.biobox.SquareGrid;
 import com.biobox.SquareTileRenderer;
+import com.biobox.WorldCache;
 import com.biobox.input.InputController;
 
 /**
@@ -38,6 +42,9 @@ public class ResponsiveWorldEditorUI implements EditorUI {
     private final BitmapFont font;
     private final SquareTileRenderer tileRenderer;
     private final BiomeGenerator worldGenerator;
+    private final EditJournal editJournal;
+    // Mundos são gerados em um buffer secundário, fora da thread de renderização
+    private final DoubleBufferedGrid worldBuffers;
     
     // Câmera e viewport para o mapa
     private final OrthographicCamera mapCamera;
@@ -70,6 +77,9 @@ public class ResponsiveWorldEditorUI implements EditorUI {
     private static final float MENU_BUTTON_HEIGHT = 40;
     private static final float MENU_PADDING = 15;
     
+    // Memória máxima do histórico de desfazer
+    private static final long UNDO_MEMORY_BUDGET = 8L * 1024 * 1024;
+    
     // Áreas da interface
     private Rectangle mapArea;
     private Rectangle bottomPanel;
@@ -92,6 +102,12 @@ public class ResponsiveWorldEditorUI implements EditorUI {
     private Array<String> worldTypeLabels = new Array<>();
     private BiomeGenerator.WorldType selectedWorldType = BiomeGenerator.WorldType.CLASSIC;
     
+    // Nível do mar; o mundo é reclassificado quando o gerador estiver livre
+    private static final float SEA_LEVEL_RANGE = 0.2f;
+    private static final float SEA_LEVEL_STEP = 0.02f;
+    private float seaLevel;
+    private float appliedSeaLevel;
+    
     // Cores da UI
     private static final Color PANEL_COLOR = new Color(0.2f, 0.2f, 0.25f, 0.9f);
     private static final Color BUTTON_COLOR = new Color(0.3f, 0.3f, 0.4f, 1f);
@@ -116,6 +132,8 @@ public class ResponsiveWorldEditorUI implements EditorUI {
         this.font = font;
         this.tileRenderer = tileRenderer;
         this.worldGenerator = worldGenerator;
+        this.editJournal = new EditJournal(grid, UNDO_MEMORY_BUDGET);
+        this.worldBuffers = new DoubleBufferedGrid(grid);
         this.glyphLayout = new GlyphLayout();
         
         // Configurar câmeras e viewports
@@ -323,6 +341,28 @@ public class ResponsiveWorldEditorUI implements EditorUI {
      */
     @Override
     public void update(float deltaTime, InputController inputController) {
+        // Trocar para o mundo recém-gerado, se já estiver pronto
+        if (worldBuffers.swapIfPublished()) {
+            tileRenderer.markDirty();
+            // Edições do mundo anterior não se aplicam ao novo
+            editJournal.clear();
+        }
+        // Até lá, mostrar a prévia mais recente sobre o mundo anterior
+        DoubleBufferedGrid.Preview preview = worldBuffers.getPreview();
+        if (preview != null) {
+            tileRenderer.setPreview(preview.getTiles(), preview.getStep());
+        } else {
+            tileRenderer.setPreview(null, 0);
+        }
+        
+        // Reclassificar o mundo para o novo nível do mar; toques seguidos
+        // viram uma só reclassificação
+        if (seaLevel != appliedSeaLevel && !worldBuffers.isGenerating()) {
+            appliedSeaLevel = seaLevel;
+            worldGenerator.setSeaLevel(seaLevel);
+            worldBuffers.reclassify(worldGenerator);
+        }
+        
         // Atualizar coordenadas de hover se no modo editor
         if (!showMainMenu && editorMode == 0) {
             updateHoveredTile();
@@ -555,12 +595,35 @@ public class ResponsiveWorldEditorUI implements EditorUI {
         String info = "Modo: " + (editorMode == 0 ? "Editor de Terreno" : "Gerador de Mundo");
         font.draw(batch, info, bottomPanel.x + 10, bottomPanel.y + bottomPanel.height - 40);
         
+        GenerationProgress progress = worldBuffers.getProgress();
+        if (progress != null) {
+            String generating = "Gerando mundo... " + (int) (progress.getFraction() * 100) + "%";
+            font.draw(batch, generating, bottomPanel.x + 10, bottomPanel.y + bottomPanel.height - 65);
+        }
+        
         if (hoveredTileX >= 0 && hoveredTileY >= 0) {
             String tileInfo = "Tile: " + hoveredTileX + ", " + hoveredTileY + 
                             " - " + grid.getTile(hoveredTileX, hoveredTileY);
             font.draw(batch, tileInfo, bottomPanel.x + 10, bottomPanel.y + 20);
         }
         
+        if (editorMode == 0) {
+            drawButtonLabel("Desfazer", getUndoButton(), editJournal.canUndo());
+            drawButtonLabel("Refazer", getRedoButton(), editJournal.canRedo());
+            font.setColor(TEXT_COLOR);
+        } else {
+            drawButtonLabel("Gerar", getGenerateButton(), true);
+            drawButtonLabel("Mar -", getSeaLowerButton(), seaLevel > -SEA_LEVEL_RANGE);
+            drawButtonLabel("Mar +", getSeaRaiseButton(), seaLevel < SEA_LEVEL_RANGE);
+            font.setColor(TEXT_COLOR);
+            String sea = String.format("Nível do mar: %+.2f", seaLevel);
+            WorldCache.Key world = worldBuffers.getFrontWorld();
+            if (world != null) {
+                sea += "   Semente: " + world.getSeed();
+            }
+            font.draw(batch, sea, getSeaLowerButton().x, getSeaLowerButton().y + getSeaLowerButton().height + 20);
+        }
+        
         batch.end();
     }
     
@@ -590,6 +653,60 @@ public class ResponsiveWorldEditorUI implements EditorUI {
             shapeRenderer.setColor(biomeColor);
             shapeRenderer.rect(button.x, button.y, button.width, button.height);
         }
+        
+        // Botões de desfazer/refazer (apagados quando não há o que aplicar)
+        Rectangle undoButton = getUndoButton();
+        shapeRenderer.setColor(editJournal.canUndo() && isMouseOver(undoButton) ? BUTTON_HOVER_COLOR : BUTTON_COLOR);
+        shapeRenderer.rect(undoButton.x, undoButton.y, undoButton.width, undoButton.height);
+        
+        Rectangle redoButton = getRedoButton();
+        shapeRenderer.setColor(editJournal.canRedo() && isMouseOver(redoButton) ? BUTTON_HOVER_COLOR : BUTTON_COLOR);
+        shapeRenderer.rect(redoButton.x, redoButton.y, redoButton.width, redoButton.height);
+    }
+    
+    /**
+     * Retângulo do botão de desfazer
+     */
+    private Rectangle getUndoButton() {
+        return new Rectangle(
+            bottomPanel.x + bottomPanel.width - 220,
+            bottomPanel.y + 20,
+            100,
+            40
+        );
+    }
+    
+    /**
+     * Retângulo do botão de refazer
+     */
+    private Rectangle getRedoButton() {
+        return new Rectangle(
+            bottomPanel.x + bottomPanel.width - 110,
+            bottomPanel.y + 20,
+            100,
+            40
+        );
+    }
+    
+    /**
+     * Retângulo do botão de gerar (no lugar do de refazer, na outra aba)
+     */
+    private Rectangle getGenerateButton() {
+        return getRedoButton();
+    }
+    
+    /**
+     * Retângulos dos botões que baixam e sobem o nível do mar (no lugar do
+     * de desfazer, na outra aba)
+     */
+    private Rectangle getSeaLowerButton() {
+        Rectangle undo = getUndoButton();
+        return new Rectangle(undo.x, undo.y, undo.width / 2 - 3, undo.height);
+    }
+    
+    private Rectangle getSeaRaiseButton() {
+        Rectangle undo = getUndoButton();
+        return new Rectangle(undo.x + undo.width / 2 + 3, undo.y, undo.width / 2 - 3, undo.height);
     }
     
     /**
@@ -612,20 +729,34 @@ public class ResponsiveWorldEditorUI implements EditorUI {
             shapeRenderer.rect(button.x, button.y, button.width, button.height);
         }
         
-        // Botão de gerar
-        Rectangle generateButton = new Rectangle(
-            bottomPanel.x + bottomPanel.width - 110,
-            bottomPanel.y + 20,
-            100,
-            40
-        );
+        // Botões do nível do mar
+        Rectangle seaLower = getSeaLowerButton();
+        shapeRenderer.setColor(isMouseOver(seaLower) ? BUTTON_HOVER_COLOR : BUTTON_COLOR);
+        shapeRenderer.rect(seaLower.x, seaLower.y, seaLower.width, seaLower.height);
+        Rectangle seaRaise = getSeaRaiseButton();
+        shapeRenderer.setColor(isMouseOver(seaRaise) ? BUTTON_HOVER_COLOR : BUTTON_COLOR);
+        shapeRenderer.rect(seaRaise.x, seaRaise.y, seaRaise.width, seaRaise.height);
         
+        // Botão de gerar
+        Rectangle generateButton = getGenerateButton();
         boolean isGenerateHovered = isMouseOver(generateButton);
         shapeRenderer.setColor(isGenerateHovered ? 
             new Color(0.9f, 0.4f, 0.4f, 1f) : new Color(0.8f, 0.3f, 0.3f, 1f));
         shapeRenderer.rect(generateButton.x, generateButton.y, generateButton.width, generateButton.height);
     }
     
+    /**
+     * Desenha o texto centralizado em um botão
+     */
+    private void drawButtonLabel(String label, Rectangle button, boolean enabled) {
+        font.setColor(enabled ? TEXT_COLOR : Color.GRAY);
+        glyphLayout.setText(font, label);
+        font.draw(batch, label,
+            button.x + (button.width - glyphLayout.width) / 2,
+            button.y + (button.height + glyphLayout.height) / 2
+        );
+    }
+    
     /**
      * Verifica se o mouse está sobre um retângulo
      */
@@ -680,9 +811,10 @@ public class ResponsiveWorldEditorUI implements EditorUI {
                 }
             } else if (mapArea.contains(uiX, uiY) && selectedTabIndex == 0 && 
                        hoveredTileX >= 0 && hoveredTileY >= 0) {
-                // Colocar terreno no tile clicado
+                // Colocar terreno no tile clicado (o renderer redesenha só a região alterada)
+                editJournal.beginOperation();
                 grid.setTile(hoveredTileX, hoveredTileY, selectedBiome);
-                tileRenderer.markDirty();
+                editJournal.endOperation();
                 return true;
             }
         }
@@ -724,6 +856,16 @@ public class ResponsiveWorldEditorUI implements EditorUI {
             }
         }
         
+        // Verificar botões de desfazer/refazer
+        if (getUndoButton().contains(uiX, uiY)) {
+            editJournal.undo();
+            return true;
+        }
+        if (getRedoButton().contains(uiX, uiY)) {
+            editJournal.redo();
+            return true;
+        }
+        
         return false;
     }
     
@@ -736,20 +878,27 @@ public class ResponsiveWorldEditorUI implements EditorUI {
         // Verificar botões de tipo de mundo
         for (int i = 0; i < worldTypeButtons.size && i < worldTypes.length; i++) {
             if (worldTypeButtons.get(i).contains(uiX, uiY)) {
+                if (worldTypes[i] != selectedWorldType) {
+                    // O mundo em geração não é mais o desejado
+                    worldBuffers.cancel();
+                }
                 selectedWorldType = worldTypes[i];
                 return true;
             }
         }
         
-        // Verificar botão de gerar
-        Rectangle generateButton = new Rectangle(
-            bottomPanel.x + bottomPanel.width - 110,
-            bottomPanel.y + 20,
-            100,
-            40
-        );
+        // Verificar botões do nível do mar
+        if (getSeaLowerButton().contains(uiX, uiY)) {
+            setSeaLevel(seaLevel - SEA_LEVEL_STEP);
+            return true;
+        }
+        if (getSeaRaiseButton().contains(uiX, uiY)) {
+            setSeaLevel(seaLevel + SEA_LEVEL_STEP);
+            return true;
+        }
         
-        if (generateButton.contains(uiX, uiY)) {
+        // Verificar botão de gerar
+        if (getGenerateButton().contains(uiX, uiY)) {
             generateWorld();
             return true;
         }
@@ -758,11 +907,31 @@ public class ResponsiveWorldEditorUI implements EditorUI {
     }
     
     /**
-     * Gera um novo mundo com o tipo selecionado
+     * Define o nível do mar, arredondado a centésimos e limitado à faixa
+     * do controle
+     */
+    private void setSeaLevel(float level) {
+        seaLevel = Math.round(MathUtils.clamp(level, -SEA_LEVEL_RANGE, SEA_LEVEL_RANGE) * 100) / 100f;
+    }
+    
+    /**
+     * Gera um mundo com o tipo selecionado. A geração roda em segundo plano
+     * e o resultado é trocado em update(); uma geração ainda em andamento é
+     * cancelada.
+     *
+     * Se só o tipo mudou desde o mundo exibido, a semente dele é mantida,
+     * para que alternar entre tipos reveja os mesmos mundos (do cache);
+     * senão uma nova é sorteada.
      */
     private void generateWorld() {
-        worldGenerator.generateWorld(grid, selectedWorldType);
-        tileRenderer.markDirty();
+        WorldCache.Key world = worldBuffers.getFrontWorld();
+        if (world != null && world.getType() != selectedWorldType) {
+            worldGenerator.setSeed(world.getSeed());
+        } else {
+            // A geração é determinística por semente, então sortear uma nova
+            worldGenerator.setSeed(MathUtils.random(1, 100000));
+        }
+        worldBuffers.generate(worldGenerator, selectedWorldType);
         
         // Mudar para o modo de edição após gerar
         editorMode = 0;
@@ -781,9 +950,16 @@ public class ResponsiveWorldEditorUI implements EditorUI {
         centerMapCamera();
     }
     
+    /**
+     * Reutilizar mundos já gerados deste cache ao gerar
+     */
+    public void setWorldCache(WorldCache cache) {
+        worldBuffers.setCache(cache);
+    }
+    
     @Override
     public void dispose() {
-        // Sem recursos específicos para liberar
+        worldBuffers.dispose();
     }
     
     @Override
@@ -1016,6 +1192,18 @@ public class ResponsiveWorldEditorUI implements EditorUI {
                     showMainMenu = true;
                     return true;
                 }
+            } else if (keycode == Input.Keys.Z && isControlPressed()) {
+                // Ctrl+Z desfaz, Ctrl+Shift+Z refaz
+                if (Gdx.input.isKeyPressed(Input.Keys.SHIFT_LEFT) ||
+                    Gdx.input.isKeyPressed(Input.Keys.SHIFT_RIGHT)) {
+                    editJournal.redo();
+                } else {
+                    editJournal.undo();
+                }
+                return true;
+            } else if (keycode == Input.Keys.Y && isControlPressed()) {
+                editJournal.redo();
+                return true;
             } else if (keycode == Input.Keys.G) {
                 toggleGrid();
                 return true;
@@ -1029,5 +1217,10 @@ public class ResponsiveWorldEditorUI implements EditorUI {
             
             return false;
         }
+        
+        private boolean isControlPressed() {
+            return Gdx.input.isKeyPressed(Input.Keys.CONTROL_LEFT) ||
+                   Gdx.input.isKeyPressed(Input.Keys.CONTROL_RIGHT);
+        }
     }
 }
\ No newline at end of file
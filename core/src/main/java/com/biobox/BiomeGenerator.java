@@ -1,14 +1,21 @@
 package com.biobox;
 
 import com.badlogic.gdx.math.MathUtils;
-import com.github.czyzby.noise4j.map.Grid;
-import com.github.czyzby.noise4j.map.generator.noise.NoiseGenerator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * Generator for RPG world maps with different biome patterns
  */
 public class BiomeGenerator {
     
+    // Bump whenever a seed would generate a different world than before, so
+    // cached worlds from older versions are not reused
+    public static final int VERSION = 5;
+    
     // Different world types
     public enum WorldType {
         CLASSIC,
@@ -19,569 +26,919 @@ public class BiomeGenerator {
         VOLCANIC
     }
     
+    /**
+     * Computes the biome ordinal of one tile. Called from worker threads, so
+     * it must only read shared state.
+     */
+    private interface TileClassifier {
+        int classify(int x, int y);
+    }
+    
+    /**
+     * One classification input (see {@link WorldLayers}) of every tile.
+     * Called from worker threads, so it must only read shared state.
+     */
+    private interface TileLayer {
+        float get(int x, int y);
+    }
+    
+    // Maps with at least this many tiles are classified on several threads
+    public static final long PARALLEL_CLASSIFICATION_THRESHOLD = 256L * 256L;
+    // Rows per classification stripe; matches the chunk height of chunked
+    // storage, so each pasted stripe fills whole chunk rows
+    private static final int STRIPE_ROWS = ChunkedTileStorage.CHUNK_SIZE;
+    
+    // Share of the reported progress taken by classification (or island
+    // shaping); beaches, features and compaction share the rest
+    private static final float SHAPING_SHARE = 0.8f;
+    
+    // Keys of the per-stage random streams (see WorldRandom#split)
+    private static final long STAGE_ISLANDS = 1;
+    private static final long STAGE_VOLCANOES = 2;
+    private static final long STAGE_MOUNTAIN_RANGES = 3;
+    private static final long STAGE_WALLS = 4;
+    private static final long STAGE_COAST = 5;
+    
+    // Coastal bands, as CoastDistance distances (3 per tile, 4 diagonally):
+    // grass touching water becomes sand, deep water touching land turns
+    // shallow, and forest thins out towards the shore
+    private static final int BEACH_DISTANCE = 4;
+    private static final int SHALLOW_RING_DISTANCE = 4;
+    private static final int FOREST_THINNING_DISTANCE = 9;
+    // Chance that forest right at the shore is thinned to grass
+    private static final float SHORE_THINNING = 0.6f;
+    // Tiles around a chunk that can change its coast, i.e. the widest band
+    private static final int COAST_APRON = FOREST_THINNING_DISTANCE / CoastDistance.STRAIGHT;
+    
+    // Coarsest preview: one sample every PREVIEW_STEP tiles each way. Each
+    // finer preview halves the step, down to 2 (see generatePreview)
+    public static final int PREVIEW_STEP = 8;
+    
+    // Noise octaves of the height of continents and pangea worlds, whose
+    // features are large enough for a finer octave to roughen their coasts;
+    // the smaller features of the other layers are left at one octave, as
+    // a second one would fall below a tile
+    private static final int COASTLINE_OCTAVES = 2;
+    
+    // Rows from one pole to the next in endless continents worlds, which
+    // have no map height to spread the climate bands over
+    public static final int ENDLESS_LATITUDE_PERIOD = 1024;
+    
     private int seed;
     
+    // Raises (or, negative, lowers) the sea by shifting every tile's height
+    // down before classification; coasts, hills and snow move together
+    private float seaLevel;
+    
+    // Biome thresholds per world type, loaded from the assets on first use
+    private BiomeRules rules;
+    
+    // Threads used to classify large maps; 1 does everything on the caller
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private ForkJoinPool pool;
+    
     public BiomeGenerator() {
         this.seed = MathUtils.random(1, 100000);
     }
     
     /**
-     * Set a specific seed for deterministic generation
+     * Set how many threads generation may use (e.g. cap it on mobile). The
+     * generated world does not depend on this.
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+        }
+        if (parallelism == this.parallelism) return;
+        
+        this.parallelism = parallelism;
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+    
+    public int getParallelism() {
+        return parallelism;
+    }
+    
+    /**
+     * Set a specific seed. The same seed and world type always produce the
+     * same world.
      */
     public void setSeed(int seed) {
         this.seed = seed;
     }
     
+    public int getSeed() {
+        return seed;
+    }
+    
     /**
-     * Generate a completely new world
+     * Raise the sea by this much height (lower it if negative). Worlds
+     * generated with a sea level other than 0 differ from the seed's usual
+     * world.
+     */
+    public void setSeaLevel(float seaLevel) {
+        this.seaLevel = seaLevel;
+    }
+    
+    public float getSeaLevel() {
+        return seaLevel;
+    }
+    
+    /**
+     * Classify tiles with these rules instead of the ones in the assets
+     */
+    public void setRules(BiomeRules rules) {
+        this.rules = rules;
+    }
+    
+    public synchronized BiomeRules getRules() {
+        if (rules == null) {
+            rules = BiomeRules.loadDefault();
+        }
+        return rules;
+    }
+    
+    /**
+     * The seed (picking one first if none was set), sea level and rules
+     * generation would use now, to generate with later whatever happens to
+     * the generator's settings meanwhile
+     */
+    public GenerationParameters getParameters() {
+        return new GenerationParameters(pickSeed(), seaLevel, getRules());
+    }
+    
+    /**
+     * Generate a completely new world. Besides the grid's own storage this
+     * needs heap only for a few stripes of rows at a time, in proportion to
+     * the width of the grid rather than its area, so a grid in
+     * {@link MappedTileStorage} can be larger than the heap.
      */
     public void generateWorld(SquareGrid grid, WorldType type) {
-        // Get new random seed if not explicitly set
-        if (seed <= 0) {
-            seed = MathUtils.random(1, 100000);
+        generateWorld(grid, type, new GenerationProgress());
+    }
+    
+    /**
+     * Generate a completely new world, reporting each stage to progress. If
+     * progress is cancelled meanwhile this throws a CancellationException,
+     * leaving the grid half-written.
+     */
+    public void generateWorld(SquareGrid grid, WorldType type, GenerationProgress progress) {
+        generateWorld(grid, type, progress, null);
+    }
+    
+    /**
+     * Generate a completely new world, reusing the tiles of its
+     * half-resolution preview (see {@link #generatePreview}) instead of
+     * classifying them again. The result is the same as without the
+     * preview. A null preview is ignored.
+     */
+    public void generateWorld(SquareGrid grid, WorldType type, GenerationProgress progress, SquareGrid preview) {
+        generateWorld(grid, type, getParameters(), progress, preview);
+    }
+    
+    /**
+     * Generate a completely new world, as above, with parameters taken
+     * earlier instead of the generator's current ones
+     */
+    public void generateWorld(SquareGrid grid, WorldType type, GenerationParameters parameters,
+                              GenerationProgress progress, SquareGrid preview) {
+        if (preview != null) {
+            checkPreviewSize(preview, grid.getWidth(), grid.getHeight(), 2);
         }
+        // A one-off run: nothing is kept, and noise is sampled straight into
+        // the classification instead of into layers
+        generateWorld(grid, new GenerationPipeline(stages(type, false, preview), false), parameters, progress);
+    }
+    
+    /**
+     * Generate a world by running a pipeline (see {@link #createPipeline})
+     * with the generator's current parameters
+     */
+    public void generateWorld(SquareGrid grid, GenerationPipeline pipeline, GenerationProgress progress) {
+        generateWorld(grid, pipeline, getParameters(), progress);
+    }
+    
+    /**
+     * Generate a world by running a pipeline with these parameters, then
+     * give back memory for areas that ended up a single biome
+     */
+    public void generateWorld(SquareGrid grid, GenerationPipeline pipeline, GenerationParameters parameters,
+                              GenerationProgress progress) {
+        pipeline.run(grid, parameters, progress);
         
-        // Choose generation type
+        // Give back memory for areas that ended up a single biome (open ocean)
+        progress.report(GenerationProgress.Stage.FINISHING, 0.95f);
+        grid.compact();
+        progress.report(GenerationProgress.Stage.DONE, 1);
+    }
+    
+    /**
+     * A memoizing pipeline for worlds of this type made by this generator:
+     * each run gets its seed, sea level and rules as
+     * {@link GenerationParameters}, and only redoes the stages from the
+     * first one whose parameters changed. Noise-based worlds keep their
+     * layers, so e.g. a new sea level just classifies them again.
+     *
+     * Layers and remembered stage outputs live on the heap, 12 and 1 bytes
+     * per tile and stage: a memoizing pipeline suits worlds being tuned in
+     * the editor, not worlds larger than the heap.
+     */
+    public GenerationPipeline createPipeline(WorldType type) {
+        return new GenerationPipeline(stages(type, true, null), true);
+    }
+    
+    /**
+     * The stages generating a world of a type, with the noise sampled into
+     * layers first (kept) or straight into the classification, which then
+     * copies what it can from a half-resolution preview (may be null)
+     */
+    private List<GenerationPipeline.Stage> stages(WorldType type, boolean keepLayers, SquareGrid preview) {
+        List<GenerationPipeline.Stage> stages = new ArrayList<>();
+        if (type == WorldType.ISLANDS) {
+            // Island worlds are built island by island
+            stages.add(new GenerationPipeline.Stage("islands") {
+                @Override
+                public long getParameterHash(GenerationParameters parameters) {
+                    return parameters.getSeed();
+                }
+                
+                @Override
+                public void run(GenerationPipeline.State state, GenerationProgress progress) {
+                    int seed = state.getParameters().getSeed();
+                    generateIslands(state.getGrid(), seed, new WorldRandom(seed).split(STAGE_ISLANDS), progress);
+                }
+            });
+        } else if (keepLayers) {
+            stages.add(new GenerationPipeline.Stage("layers") {
+                @Override
+                public long getParameterHash(GenerationParameters parameters) {
+                    return parameters.getSeed();
+                }
+                
+                @Override
+                public void run(GenerationPipeline.State state, GenerationProgress progress) {
+                    SquareGrid grid = state.getGrid();
+                    state.setLayers(generateLayers(grid.getWidth(), grid.getHeight(), type,
+                        state.getParameters(), progress));
+                }
+            });
+            stages.add(new GenerationPipeline.Stage("classification") {
+                @Override
+                public long getParameterHash(GenerationParameters parameters) {
+                    return classificationHash(parameters, type);
+                }
+                
+                @Override
+                public void run(GenerationPipeline.State state, GenerationProgress progress) {
+                    WorldLayers layers = state.getLayers();
+                    TileLayer[] sources = {
+                        (x, y) -> layers.get(WorldLayers.HEIGHT, x, y),
+                        (x, y) -> layers.get(WorldLayers.VARIATION, x, y),
+                        (x, y) -> layers.get(WorldLayers.CLIMATE, x, y)
+                    };
+                    classify(state.getGrid(), classifier(state.getParameters(), type, sources), progress,
+                        GenerationProgress.Stage.CLASSIFYING, SHAPING_SHARE);
+                }
+            });
+        } else {
+            stages.add(new GenerationPipeline.Stage("classification") {
+                @Override
+                public long getParameterHash(GenerationParameters parameters) {
+                    return WorldRandom.mix(parameters.getSeed()) ^ classificationHash(parameters, type);
+                }
+                
+                @Override
+                public void run(GenerationPipeline.State state, GenerationProgress progress) {
+                    SquareGrid grid = state.getGrid();
+                    GenerationParameters parameters = state.getParameters();
+                    TileClassifier classifier = classifier(parameters, type,
+                        layers(parameters.getSeed(), type, grid.getWidth(), grid.getHeight()));
+                    if (preview != null) {
+                        classifier = sampled(classifier, 1, preview);
+                    }
+                    classify(grid, classifier, progress, GenerationProgress.Stage.CLASSIFYING, SHAPING_SHARE);
+                }
+            });
+        }
+        
+        // Beaches, shallows and thinner forest along the coast
+        stages.add(new GenerationPipeline.Stage("coast") {
+            @Override
+            public long getParameterHash(GenerationParameters parameters) {
+                return parameters.getSeed();
+            }
+            
+            @Override
+            public void run(GenerationPipeline.State state, GenerationProgress progress) {
+                progress.report(GenerationProgress.Stage.SHAPING_COASTS, SHAPING_SHARE);
+                shapeCoast(state.getGrid(), new WorldRandom(state.getParameters().getSeed()).split(STAGE_COAST), 0, 0);
+            }
+        });
+        
+        // Type-specific features
         switch (type) {
-            case CLASSIC:
-                generateClassic(grid);
-                break;
-            case ARCHIPELAGO:
-                generateArchipelago(grid);
-                break;
-            case CONTINENTS:
-                generateContinents(grid);
+            case VOLCANIC:
+                stages.add(new FeatureStage("volcanoes", STAGE_VOLCANOES) {
+                    @Override
+                    void add(SquareGrid grid, WorldRandom random) {
+                        addVolcanoes(grid, random);
+                    }
+                });
                 break;
             case PANGEA:
-                generatePangea(grid);
-                break;
-            case ISLANDS:
-                generateIslands(grid);
-                break;
-            case VOLCANIC:
-                generateVolcanic(grid);
+                stages.add(new FeatureStage("mountain ranges", STAGE_MOUNTAIN_RANGES) {
+                    @Override
+                    void add(SquareGrid grid, WorldRandom random) {
+                        addMountainRanges(grid, random);
+                    }
+                });
                 break;
-            default:
-                generateClassic(grid);
+            case CONTINENTS:
+                stages.add(new FeatureStage("walls", STAGE_WALLS) {
+                    @Override
+                    void add(SquareGrid grid, WorldRandom random) {
+                        addWalls(grid, random);
+                    }
+                });
                 break;
         }
-        
-        // Apply finishing touches
-        applyFinishingTouches(grid, type);
+        return stages;
     }
     
     /**
-     * Generate a classic RPG map with balanced biomes
+     * A stage adding features drawn from its own random stream of the seed
      */
-    private void generateClassic(SquareGrid grid) {
-        // Create height map for determining land vs water
-        Grid heightGrid = createNoiseGrid(grid.getWidth(), grid.getHeight(), 3, 0.7f);
+    private abstract class FeatureStage extends GenerationPipeline.Stage {
+        private final long streamKey;
         
-        // Create another noise map for biome variety
-        Grid biomeGrid = createNoiseGrid(grid.getWidth(), grid.getHeight(), 4, 0.6f, seed + 1);
+        FeatureStage(String name, long streamKey) {
+            super(name);
+            this.streamKey = streamKey;
+        }
         
-        // Apply to tiles
-        for (int x = 0; x < grid.getWidth(); x++) {
-            for (int y = 0; y < grid.getHeight(); y++) {
-                float height = heightGrid.get(x, y);
-                float biomeVar = biomeGrid.get(x, y);
-                
-                if (height < 0.3f) {
-                    if (height < 0.15f) {
-                        grid.setTile(x, y, BiomeType.DEEP_WATER);
-                    } else {
-                        grid.setTile(x, y, BiomeType.SHALLOW_WATER);
-                    }
-                } else if (height < 0.4f) {
-                    grid.setTile(x, y, BiomeType.SAND);
-                } else if (height < 0.8f) {
-                    if (biomeVar < 0.3f) {
-                        grid.setTile(x, y, BiomeType.SAVANNA);
-                    } else if (biomeVar < 0.6f) {
-                        grid.setTile(x, y, BiomeType.GRASS);
-                    } else if (biomeVar < 0.85f) {
-                        grid.setTile(x, y, BiomeType.FOREST);
-                    } else {
-                        grid.setTile(x, y, BiomeType.JUNGLE);
-                    }
-                } else {
-                    if (height > 0.9f) {
-                        grid.setTile(x, y, BiomeType.SNOW);
-                    } else if (biomeVar < 0.5f) {
-                        grid.setTile(x, y, BiomeType.HILLS);
-                    } else {
-                        grid.setTile(x, y, BiomeType.MOUNTAINS);
-                    }
-                }
-            }
+        @Override
+        public long getParameterHash(GenerationParameters parameters) {
+            return parameters.getSeed();
+        }
+        
+        @Override
+        public void run(GenerationPipeline.State state, GenerationProgress progress) {
+            progress.report(GenerationProgress.Stage.ADDING_FEATURES, 0.9f);
+            add(state.getGrid(), new WorldRandom(state.getParameters().getSeed()).split(streamKey));
         }
+        
+        abstract void add(SquareGrid grid, WorldRandom random);
     }
     
     /**
-     * Generate archipelago world with many small islands
+     * Hash of what classification depends on besides its inputs: the rules
+     * and the sea level
      */
-    private void generateArchipelago(SquareGrid grid) {
-        // Create height map
-        Grid heightGrid = createNoiseGrid(grid.getWidth(), grid.getHeight(), 3, 0.7f);
-        
-        // Apply radial gradient to create island-like shapes
-        applyRadialGradient(heightGrid, 0.4f);
+    private static long classificationHash(GenerationParameters parameters, WorldType type) {
+        return WorldRandom.mix(parameters.getRulesHash(type) ^ Float.floatToIntBits(parameters.getSeaLevel()));
+    }
+    
+    /**
+     * The seed, picking one first if none was set
+     */
+    private int pickSeed() {
+        if (seed <= 0) {
+            seed = MathUtils.random(1, 100000);
+        }
+        return seed;
+    }
+    
+    /**
+     * Compute the classification inputs of the width x height world this
+     * seed and type generate, as the layers stage of a pipeline does.
+     * Island worlds have no such inputs. The layers take 12 bytes of heap
+     * per tile (see {@link WorldLayers}).
+     */
+    public WorldLayers generateLayers(int width, int height, WorldType type, GenerationProgress progress) {
+        return generateLayers(width, height, type, getParameters(), progress);
+    }
+    
+    /**
+     * Compute the classification inputs as above, for the seed of these
+     * parameters
+     */
+    public WorldLayers generateLayers(int width, int height, WorldType type, GenerationParameters parameters,
+                                      GenerationProgress progress) {
+        if (!supportsLayers(type)) {
+            throw new IllegalArgumentException(type + " worlds have no layers");
+        }
         
-        // Create another noise map for biome variety
-        Grid biomeGrid = createNoiseGrid(grid.getWidth(), grid.getHeight(), 4, 0.6f, seed + 1);
+        WorldLayers layers = new WorldLayers(parameters.getSeed(), type, width, height);
+        TileLayer[] sources = layers(parameters.getSeed(), type, width, height);
+        int stripeCount = (height + STRIPE_ROWS - 1) / STRIPE_ROWS;
+        boolean parallel = parallelism > 1 && (long) width * height >= PARALLEL_CLASSIFICATION_THRESHOLD;
         
-        // Apply to tiles
-        for (int x = 0; x < grid.getWidth(); x++) {
-            for (int y = 0; y < grid.getHeight(); y++) {
-                float height = heightGrid.get(x, y);
-                float biomeVar = biomeGrid.get(x, y);
-                
-                if (height < 0.3f) {
-                    if (height < 0.15f) {
-                        grid.setTile(x, y, BiomeType.DEEP_WATER);
-                    } else {
-                        grid.setTile(x, y, BiomeType.SHALLOW_WATER);
-                    }
-                } else if (height < 0.4f) {
-                    grid.setTile(x, y, BiomeType.SAND);
-                } else if (height < 0.7f) {
-                    if (biomeVar < 0.4f) {
-                        grid.setTile(x, y, BiomeType.GRASS);
-                    } else if (biomeVar < 0.8f) {
-                        grid.setTile(x, y, BiomeType.FOREST);
-                    } else {
-                        grid.setTile(x, y, BiomeType.JUNGLE);
-                    }
-                } else {
-                    if (biomeVar < 0.5f) {
-                        grid.setTile(x, y, BiomeType.HILLS);
-                    } else {
-                        grid.setTile(x, y, BiomeType.MOUNTAINS);
-                    }
+        // Stripes write disjoint rows of the arrays, so no pasting is needed
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(stripeCount);
+        for (int stripe = 0; stripe < stripeCount; stripe++) {
+            int startY = stripe * STRIPE_ROWS;
+            int rows = Math.min(STRIPE_ROWS, height - startY);
+            Runnable fill = () -> fillLayers(layers, sources, startY, rows);
+            if (parallel) {
+                tasks.add(getPool().submit(fill));
+            } else {
+                progress.report(GenerationProgress.Stage.CLASSIFYING, SHAPING_SHARE * stripe / stripeCount);
+                fill.run();
+            }
+        }
+        for (int i = 0; i < tasks.size(); i++) {
+            progress.report(GenerationProgress.Stage.CLASSIFYING, SHAPING_SHARE * i / stripeCount);
+            tasks.get(i).join();
+        }
+        return layers;
+    }
+    
+    /**
+     * Whether worlds of this type have layers (see {@link #generateLayers})
+     */
+    public static boolean supportsLayers(WorldType type) {
+        return type != WorldType.ISLANDS;
+    }
+    
+    private static void fillLayers(WorldLayers layers, TileLayer[] sources, int startY, int rows) {
+        for (int layer = 0; layer < WorldLayers.LAYER_COUNT; layer++) {
+            float[] values = layers.getValues(layer);
+            TileLayer source = sources[layer];
+            int i = startY * layers.getWidth();
+            for (int y = startY; y < startY + rows; y++) {
+                for (int x = 0; x < layers.getWidth(); x++) {
+                    values[i++] = source.get(x, y);
                 }
             }
         }
     }
     
     /**
-     * Generate continents world with large landmasses
+     * Whether worlds of this type can be generated chunk by chunk with
+     * {@link #generateChunk}, i.e. don't depend on the size of the map
+     */
+    public static boolean supportsChunks(WorldType type) {
+        return type == WorldType.CLASSIC || type == WorldType.CONTINENTS;
+    }
+    
+    /**
+     * Generate one chunk of an endless world: the tiles from (originX,
+     * originY) on, in world coordinates that may be negative, over the size
+     * of the chunk grid. Chunks of the same seed line up seamlessly and are
+     * the same whatever order they are generated in. Map-wide features
+     * (continent walls) are left out. Safe to call from several threads at
+     * once; each chunk is generated with the parameters of when it started,
+     * so chunks only line up as long as the seed isn't changed meanwhile.
      */
-    private void generateContinents(SquareGrid grid) {
-        // Create height map with larger features
-        Grid heightGrid = createNoiseGrid(grid.getWidth(), grid.getHeight(), 5, 0.8f);
+    public void generateChunk(SquareGrid chunk, int originX, int originY, WorldType type) {
+        if (!supportsChunks(type)) {
+            throw new IllegalArgumentException(type + " worlds can't be generated in chunks");
+        }
+        GenerationParameters parameters = getParameters();
+        int seed = parameters.getSeed();
         
-        // Create biome variation map
-        Grid biomeGrid = createNoiseGrid(grid.getWidth(), grid.getHeight(), 4, 0.6f, seed + 1);
+        // Classify a few extra tiles all around, so the coast sees the
+        // water and land in neighbouring chunks
+        int apronX = originX - COAST_APRON;
+        int apronY = originY - COAST_APRON;
+        SquareGrid apron = new SquareGrid(new PackedTileStorage(
+            chunk.getWidth() + 2 * COAST_APRON, chunk.getHeight() + 2 * COAST_APRON, BiomeType.GRASS));
+        GenerationProgress unreported = new GenerationProgress();
+        if (type == WorldType.CONTINENTS) {
+            classify(apron,
+                classifier(parameters, type, continentsLayers(seed, apronX, apronY, ENDLESS_LATITUDE_PERIOD)),
+                unreported, GenerationProgress.Stage.CLASSIFYING, 0);
+        } else {
+            classify(apron, classifier(parameters, type, classicLayers(seed, apronX, apronY)),
+                unreported, GenerationProgress.Stage.CLASSIFYING, 0);
+        }
+        shapeCoast(apron, new WorldRandom(seed).split(STAGE_COAST), apronX, apronY);
         
-        // Create temperature variation (north-south gradient)
-        Grid tempGrid = new Grid(grid.getWidth(), grid.getHeight());
-        applyLatitudeGradient(tempGrid);
+        chunk.pasteRegion(apron.copyRegion(COAST_APRON, COAST_APRON, chunk.getWidth(), chunk.getHeight()), 0, 0);
+    }
+    
+    /**
+     * Whether worlds of this type can be previewed with
+     * {@link #generatePreview}
+     */
+    public static boolean supportsPreview(WorldType type) {
+        return supportsLayers(type);
+    }
+    
+    /**
+     * Classify a coarse preview of the width x height world this seed and
+     * type generate: preview tile (x, y) is the biome of world tile
+     * (x * step, y * step) before beaches and features are added. Tiles
+     * already sampled by the preview at twice the step (coarser, may be
+     * null) are copied from it rather than classified again, so a chain of
+     * previews down to step 2 and then the full world costs little more
+     * than the full world alone.
+     */
+    public SquareGrid generatePreview(int width, int height, WorldType type, int step,
+                                      SquareGrid coarser, GenerationProgress progress) {
+        return generatePreview(width, height, type, getParameters(), step, coarser, progress);
+    }
+    
+    /**
+     * Classify a coarse preview as above, with parameters taken earlier
+     * instead of the generator's current ones
+     */
+    public SquareGrid generatePreview(int width, int height, WorldType type, GenerationParameters parameters,
+                                      int step, SquareGrid coarser, GenerationProgress progress) {
+        if (!supportsPreview(type)) {
+            throw new IllegalArgumentException(type + " worlds can't be previewed");
+        }
+        if (step < 2) {
+            throw new IllegalArgumentException("Preview step must be at least 2: " + step);
+        }
         
-        // Apply to tiles
-        for (int x = 0; x < grid.getWidth(); x++) {
-            for (int y = 0; y < grid.getHeight(); y++) {
-                float height = heightGrid.get(x, y);
-                float biomeVar = biomeGrid.get(x, y);
-                float temp = tempGrid.get(x, y);
-                
-                if (height < 0.35f) {
-                    if (height < 0.2f) {
-                        grid.setTile(x, y, BiomeType.DEEP_WATER);
-                    } else {
-                        grid.setTile(x, y, BiomeType.SHALLOW_WATER);
-                    }
-                } else if (height < 0.45f) {
-                    grid.setTile(x, y, BiomeType.SAND);
-                } else if (height < 0.75f) {
-                    // Northern areas (colder)
-                    if (temp < 0.3f) {
-                        if (biomeVar < 0.5f) {
-                            grid.setTile(x, y, BiomeType.GRASS);
-                        } else {
-                            grid.setTile(x, y, BiomeType.FOREST);
-                        }
-                    }
-                    // Middle areas (temperate)
-                    else if (temp < 0.7f) {
-                        if (biomeVar < 0.3f) {
-                            grid.setTile(x, y, BiomeType.GRASS);
-                        } else if (biomeVar < 0.6f) {
-                            grid.setTile(x, y, BiomeType.SAVANNA);
-                        } else if (biomeVar < 0.9f) {
-                            grid.setTile(x, y, BiomeType.FOREST);
-                        } else {
-                            grid.setTile(x, y, BiomeType.SWAMP);
-                        }
-                    }
-                    // Southern areas (hotter)
-                    else {
-                        if (biomeVar < 0.4f) {
-                            grid.setTile(x, y, BiomeType.DESERT);
-                        } else if (biomeVar < 0.7f) {
-                            grid.setTile(x, y, BiomeType.SAVANNA);
-                        } else {
-                            grid.setTile(x, y, BiomeType.JUNGLE);
-                        }
-                    }
-                } else {
-                    if (temp < 0.4f || height > 0.9f) {
-                        grid.setTile(x, y, BiomeType.SNOW);
-                    } else if (height < 0.85f) {
-                        grid.setTile(x, y, BiomeType.HILLS);
-                    } else {
-                        grid.setTile(x, y, BiomeType.MOUNTAINS);
-                    }
-                }
-            }
+        TileClassifier classifier = classifier(parameters, type, layers(parameters.getSeed(), type, width, height));
+        if (coarser != null) {
+            checkPreviewSize(coarser, width, height, step * 2);
+        }
+        SquareGrid preview = new SquareGrid(new PackedTileStorage(
+            (width + step - 1) / step, (height + step - 1) / step, BiomeType.GRASS));
+        // Previews are quick; they report no fraction, only that they run
+        classify(preview, sampled(classifier, step, coarser), progress, GenerationProgress.Stage.PREVIEWING, 0);
+        return preview;
+    }
+    
+    /**
+     * Classify tile (x, y) of a preview at the given step, copying the
+     * tiles at even coordinates from the preview at twice the step
+     */
+    private static TileClassifier sampled(TileClassifier classifier, int step, SquareGrid coarser) {
+        if (coarser == null) {
+            return (x, y) -> classifier.classify(x * step, y * step);
+        }
+        return (x, y) -> (x & 1) == 0 && (y & 1) == 0
+            ? coarser.getOrdinal(x >> 1, y >> 1)
+            : classifier.classify(x * step, y * step);
+    }
+    
+    private static void checkPreviewSize(SquareGrid preview, int width, int height, int step) {
+        if (preview.getWidth() != (width + step - 1) / step || preview.getHeight() != (height + step - 1) / step) {
+            throw new IllegalArgumentException("Preview of " + preview.getWidth() + "x" + preview.getHeight()
+                + " doesn't match a " + width + "x" + height + " world at step " + step);
+        }
+    }
+    
+    /**
+     * Hash of the biome rules worlds of a type are classified with, which
+     * changes whenever data/biomes.txt is retuned for that type; 0 for
+     * islands, which don't use them
+     */
+    public long getRulesHash(WorldType type) {
+        if (!supportsLayers(type)) return 0;
+        return getRules().getTable(type).getContentHash();
+    }
+    
+    /**
+     * Classifier for a world type from its layers, with the rules and at the
+     * sea level of these parameters
+     */
+    private static TileClassifier classifier(GenerationParameters parameters, WorldType type, TileLayer[] layers) {
+        BiomeTable table = parameters.getRules().getTable(type);
+        TileLayer height = layers[WorldLayers.HEIGHT];
+        TileLayer variation = layers[WorldLayers.VARIATION];
+        TileLayer climate = layers[WorldLayers.CLIMATE];
+        float shift = parameters.getSeaLevel();
+        return (x, y) -> table.classify(height.get(x, y) - shift, variation.get(x, y), climate.get(x, y));
+    }
+    
+    /**
+     * Layers of every tile of a width x height world of a seed and type
+     * that is classified from noise (all but islands)
+     */
+    private static TileLayer[] layers(int seed, WorldType type, int width, int height) {
+        switch (type) {
+            case ARCHIPELAGO:
+                return archipelagoLayers(seed, width, height);
+            case CONTINENTS:
+                return continentsLayers(seed, 0, 0, height);
+            case PANGEA:
+                return pangeaLayers(seed, width, height);
+            case VOLCANIC:
+                return volcanicLayers(seed, width, height);
+            case CLASSIC:
+            default:
+                return classicLayers(seed, 0, 0);
         }
     }
     
     /**
-     * Generate pangea world (one massive continent)
+     * Classic RPG map with balanced biomes, for tiles offset by (originX,
+     * originY)
      */
-    private void generatePangea(SquareGrid grid) {
-        // Create height map
-        Grid heightGrid = createNoiseGrid(grid.getWidth(), grid.getHeight(), 6, 0.9f);
+    private static TileLayer[] classicLayers(int seed, int originX, int originY) {
+        // Height noise for determining land vs water, plus another noise
+        // for biome variety
+        CoherentNoise heightNoise = new CoherentNoise(seed, 3, 0.7f);
+        CoherentNoise biomeNoise = new CoherentNoise(seed + 1, 4, 0.6f);
         
-        // Create a large central continent
-        applyCentralContinent(heightGrid, 0.7f);
+        return new TileLayer[] {
+            (x, y) -> heightNoise.get(originX + x, originY + y),
+            (x, y) -> biomeNoise.get(originX + x, originY + y),
+            (x, y) -> 0
+        };
+    }
+    
+    /**
+     * Archipelago world with many small islands
+     */
+    private static TileLayer[] archipelagoLayers(int seed, int width, int height) {
+        // Height noise, plus another noise for biome variety
+        CoherentNoise heightNoise = new CoherentNoise(seed, 3, 0.7f);
+        CoherentNoise biomeNoise = new CoherentNoise(seed + 1, 4, 0.6f);
+        MapFields fields = MapFields.forSize(width, height);
         
-        // Create biome variation map
-        Grid biomeGrid = createNoiseGrid(grid.getWidth(), grid.getHeight(), 4, 0.6f, seed + 1);
+        // A radial gradient on the height creates island-like shapes
+        return new TileLayer[] {
+            (x, y) -> heightNoise.get(x, y) - radialGradient(fields, x, y, 0.4f),
+            biomeNoise::get,
+            (x, y) -> 0
+        };
+    }
+    
+    /**
+     * Continents world with large landmasses, for tiles offset by (originX,
+     * originY), with the climate bands repeating every latitudePeriod rows
+     */
+    private static TileLayer[] continentsLayers(int seed, int originX, int originY, int latitudePeriod) {
+        // Height noise with larger features, plus biome variation noise
+        CoherentNoise heightNoise = new CoherentNoise(seed, 5, 0.8f, COASTLINE_OCTAVES);
+        CoherentNoise biomeNoise = new CoherentNoise(seed + 1, 4, 0.6f);
         
-        // Create moisture map
-        Grid moistureGrid = createNoiseGrid(grid.getWidth(), grid.getHeight(), 3, 0.7f, seed + 2);
+        // Latitude is the temperature variation (north-south gradient); the
+        // bands of one period are those of a map latitudePeriod rows high
+        return new TileLayer[] {
+            (x, y) -> heightNoise.get(originX + x, originY + y),
+            (x, y) -> biomeNoise.get(originX + x, originY + y),
+            (x, y) -> MapFields.latitude(((originY + y) % latitudePeriod + latitudePeriod) % latitudePeriod,
+                latitudePeriod)
+        };
+    }
+    
+    /**
+     * Pangea world (one massive continent)
+     */
+    private static TileLayer[] pangeaLayers(int seed, int width, int height) {
+        // Height, biome variation and moisture noise
+        CoherentNoise heightNoise = new CoherentNoise(seed, 6, 0.9f, COASTLINE_OCTAVES);
+        CoherentNoise biomeNoise = new CoherentNoise(seed + 1, 4, 0.6f);
+        CoherentNoise moistureNoise = new CoherentNoise(seed + 2, 3, 0.7f);
+        MapFields fields = MapFields.forSize(width, height);
         
-        // Apply to tiles
-        for (int x = 0; x < grid.getWidth(); x++) {
-            for (int y = 0; y < grid.getHeight(); y++) {
-                float height = heightGrid.get(x, y);
-                float biomeVar = biomeGrid.get(x, y);
-                float moisture = moistureGrid.get(x, y);
-                
-                if (height < 0.25f) {
-                    if (height < 0.1f) {
-                        grid.setTile(x, y, BiomeType.DEEP_WATER);
-                    } else {
-                        grid.setTile(x, y, BiomeType.SHALLOW_WATER);
-                    }
-                } else if (height < 0.35f) {
-                    grid.setTile(x, y, BiomeType.SAND);
-                } else {
-                    // Use moisture to determine inland biomes
-                    if (moisture < 0.3f) {
-                        // Dry areas
-                        if (biomeVar < 0.3f) {
-                            grid.setTile(x, y, BiomeType.DESERT);
-                        } else {
-                            grid.setTile(x, y, BiomeType.SAVANNA);
-                        }
-                    } else if (moisture < 0.6f) {
-                        // Medium moisture
-                        if (biomeVar < 0.5f) {
-                            grid.setTile(x, y, BiomeType.GRASS);
-                        } else if (height > 0.7f) {
-                            grid.setTile(x, y, BiomeType.HILLS);
-                        } else {
-                            grid.setTile(x, y, BiomeType.FOREST);
-                        }
-                    } else {
-                        // Wet areas
-                        if (biomeVar < 0.3f) {
-                            grid.setTile(x, y, BiomeType.SWAMP);
-                        } else if (biomeVar < 0.7f) {
-                            grid.setTile(x, y, BiomeType.FOREST);
-                        } else if (height > 0.8f) {
-                            grid.setTile(x, y, BiomeType.MOUNTAINS);
-                        } else {
-                            grid.setTile(x, y, BiomeType.JUNGLE);
-                        }
-                    }
-                    
-                    // Snow caps on high elevations
-                    if (height > 0.85f) {
-                        grid.setTile(x, y, BiomeType.SNOW);
-                    }
-                }
-            }
-        }
+        // The height is raised into a large central continent
+        return new TileLayer[] {
+            (x, y) -> heightNoise.get(x, y) + centralContinent(fields, x, y, 0.7f),
+            biomeNoise::get,
+            moistureNoise::get
+        };
     }
     
     /**
      * Generate island world type
      */
-    private void generateIslands(SquareGrid grid) {
+    private void generateIslands(SquareGrid grid, int seed, WorldRandom random, GenerationProgress progress) {
         // Fill with deep water
-        for (int x = 0; x < grid.getWidth(); x++) {
-            for (int y = 0; y < grid.getHeight(); y++) {
-                grid.setTile(x, y, BiomeType.DEEP_WATER);
-            }
-        }
+        grid.fill(BiomeType.DEEP_WATER);
+        
+        // One noise source for all island outlines; islands at different
+        // places read different parts of it
+        CoherentNoise islandNoise = new CoherentNoise(seed, 2, 0.5f);
+        MapFields fields = MapFields.forSize(grid.getWidth(), grid.getHeight());
         
         // Create several distinct islands
-        int numIslands = MathUtils.random(10, 20);
+        int numIslands = random.nextInt(10, 20);
         for (int i = 0; i < numIslands; i++) {
+            progress.report(GenerationProgress.Stage.SHAPING_ISLANDS, SHAPING_SHARE * i / numIslands);
             createIsland(grid, 
-                MathUtils.random(grid.getWidth() / 8, grid.getWidth() * 7 / 8),
-                MathUtils.random(grid.getHeight() / 8, grid.getHeight() * 7 / 8),
-                MathUtils.random(3, Math.min(grid.getWidth(), grid.getHeight()) / 8),
-                seed + i * 100);
-        }
-    }
-    
-    /**
-     * Create a single island
-     */
-    private void createIsland(SquareGrid grid, int centerX, int centerY, int radius, int noiseSeed) {
-        // Create noise grid for the island
-        Grid noiseGrid = createNoiseGrid(grid.getWidth(), grid.getHeight(), 2, 0.5f, noiseSeed);
-        
-        // Create the island
-        for (int x = 0; x < grid.getWidth(); x++) {
-            for (int y = 0; y < grid.getHeight(); y++) {
-                float distance = distance(x, y, centerX, centerY);
-                if (distance <= radius) {
-                    float factor = 1.0f - (distance / radius);
-                    float noise = noiseGrid.get(x, y);
-                    
-                    // Combine noise and distance for natural island shape
-                    float value = factor * 0.7f + noise * 0.3f;
-                    
-                    if (value > 0.7f) {
-                        // Center - higher ground
-                        if (MathUtils.randomBoolean(0.3f)) {
-                            grid.setTile(x, y, BiomeType.MOUNTAINS);
-                        } else {
-                            grid.setTile(x, y, BiomeType.FOREST);
-                        }
-                    } else if (value > 0.5f) {
-                        // Middle area
-                        if (MathUtils.randomBoolean(0.7f)) {
-                            grid.setTile(x, y, BiomeType.GRASS);
-                        } else {
-                            grid.setTile(x, y, BiomeType.FOREST);
-                        }
-                    } else if (value > 0.4f) {
-                        // Beach
-                        grid.setTile(x, y, BiomeType.SAND);
-                    } else if (value > 0.35f) {
-                        // Shallow water
-                        grid.setTile(x, y, BiomeType.SHALLOW_WATER);
-                    }
-                }
-            }
+                random.nextInt(grid.getWidth() / 8, grid.getWidth() * 7 / 8),
+                random.nextInt(grid.getHeight() / 8, grid.getHeight() * 7 / 8),
+                random.nextInt(3, Math.min(grid.getWidth(), grid.getHeight()) / 8),
+                islandNoise,
+                fields,
+                random.split(i));
         }
     }
     
     /**
-     * Generate volcanic world type
+     * Create a single island. Only tiles within radius of the centre can
+     * change, so just those are visited: the cost follows the island's
+     * area, not the map's.
      */
-    private void generateVolcanic(SquareGrid grid) {
-        // Create height map
-        Grid heightGrid = createNoiseGrid(grid.getWidth(), grid.getHeight(), 4, 0.8f);
-        
-        // Apply radial gradient for volcanic island theme
-        applyRadialGradient(heightGrid, 0.5f);
+    private void createIsland(SquareGrid grid, int centerX, int centerY, int radius,
+                              CoherentNoise islandNoise, MapFields fields, WorldRandom random) {
+        int minY = Math.max(centerY - radius, 0);
+        int maxY = Math.min(centerY + radius, grid.getHeight() - 1);
         
-        // Create biome variation map
-        Grid biomeGrid = createNoiseGrid(grid.getWidth(), grid.getHeight(), 3, 0.6f, seed + 1);
-        
-        // Add volcanic features - lava flows and ash
-        Grid volcanoGrid = createNoiseGrid(grid.getWidth(), grid.getHeight(), 2, 0.9f, seed + 100);
-        
-        // Apply to tiles
-        for (int x = 0; x < grid.getWidth(); x++) {
-            for (int y = 0; y < grid.getHeight(); y++) {
-                float height = heightGrid.get(x, y);
-                float biomeVar = biomeGrid.get(x, y);
-                float volcanic = volcanoGrid.get(x, y);
+        for (int y = minY; y <= maxY; y++) {
+            // Widest dx with dx * dx + dy * dy <= radius * radius
+            int dy = y - centerY;
+            int halfWidth = (int) Math.sqrt((double) radius * radius - dy * dy);
+            int minX = Math.max(centerX - halfWidth, 0);
+            int maxX = Math.min(centerX + halfWidth, grid.getWidth() - 1);
+            
+            for (int x = minX; x <= maxX; x++) {
+                float distance = fields.getOffsetDistance(x - centerX, dy);
+                float factor = 1.0f - (distance / radius);
+                float noise = islandNoise.get(x, y);
                 
-                if (height < 0.3f) {
-                    if (height < 0.15f) {
-                        grid.setTile(x, y, BiomeType.DEEP_WATER);
+                // Combine noise and distance for natural island shape
+                float value = factor * 0.7f + noise * 0.3f;
+                
+                if (value > 0.7f) {
+                    // Center - higher ground
+                    if (random.nextBoolean(0.3f)) {
+                        grid.setTile(x, y, BiomeType.MOUNTAINS);
                     } else {
-                        grid.setTile(x, y, BiomeType.SHALLOW_WATER);
+                        grid.setTile(x, y, BiomeType.FOREST);
                     }
-                } else if (height < 0.4f) {
-                    grid.setTile(x, y, BiomeType.SAND);
-                } else {
-                    // Volcanic features
-                    if (volcanic > 0.85f && height > 0.6f) {
-                        grid.setTile(x, y, BiomeType.LAVA);
-                    } else if (volcanic > 0.75f) {
-                        // Ash and rock
-                        grid.setTile(x, y, BiomeType.HILLS);
+                } else if (value > 0.5f) {
+                    // Middle area
+                    if (random.nextBoolean(0.7f)) {
+                        grid.setTile(x, y, BiomeType.GRASS);
                     } else {
-                        // Regular biomes
-                        if (biomeVar < 0.5f) {
-                            grid.setTile(x, y, BiomeType.GRASS);
-                        } else if (biomeVar < 0.8f) {
-                            grid.setTile(x, y, BiomeType.FOREST);
-                        } else if (height > 0.8f) {
-                            grid.setTile(x, y, BiomeType.MOUNTAINS);
-                        } else {
-                            grid.setTile(x, y, BiomeType.JUNGLE);
-                        }
-                    }
-                    
-                    // Mountain peaks
-                    if (height > 0.9f && volcanic < 0.7f) {
-                        grid.setTile(x, y, BiomeType.SNOW);
+                        grid.setTile(x, y, BiomeType.FOREST);
                     }
+                } else if (value > 0.4f) {
+                    // Beach
+                    grid.setTile(x, y, BiomeType.SAND);
+                } else if (value > 0.35f) {
+                    // Shallow water
+                    grid.setTile(x, y, BiomeType.SHALLOW_WATER);
                 }
             }
         }
     }
     
     /**
-     * Create a noise grid
+     * Volcanic world type
      */
-    private Grid createNoiseGrid(int width, int height, int radius, float modifier) {
-        return createNoiseGrid(width, height, radius, modifier, seed);
-    }
-    
-    /**
-     * Create a noise grid with a specific seed
-     */
-    private Grid createNoiseGrid(int width, int height, int radius, float modifier, int noiseSeed) {
-        Grid noiseGrid = new Grid(width, height);
-        
-        NoiseGenerator noiseGenerator = new NoiseGenerator();
-        noiseGenerator.setSeed(noiseSeed);
-        noiseGenerator.setRadius(radius);
-        noiseGenerator.setModifier(modifier);
-        noiseGenerator.generate(noiseGrid);
+    private static TileLayer[] volcanicLayers(int seed, int width, int height) {
+        // Height, biome variation and volcanic feature (lava flows and ash) noise
+        CoherentNoise heightNoise = new CoherentNoise(seed, 4, 0.8f);
+        CoherentNoise biomeNoise = new CoherentNoise(seed + 1, 3, 0.6f);
+        CoherentNoise volcanoNoise = new CoherentNoise(seed + 100, 2, 0.9f);
+        MapFields fields = MapFields.forSize(width, height);
         
-        return noiseGrid;
+        // A radial gradient on the height for the volcanic island theme
+        return new TileLayer[] {
+            (x, y) -> heightNoise.get(x, y) - radialGradient(fields, x, y, 0.5f),
+            biomeNoise::get,
+            volcanoNoise::get
+        };
     }
     
     /**
-     * Apply a radial gradient to create island-like shapes
+     * Classify every tile of the grid. Large maps are split into row stripes
+     * that worker threads classify into their own buffers; the stripes are
+     * then pasted on this thread, since the grid's histogram and dirty
+     * trackers are not thread-safe. Progress is reported as the given stage
+     * after every batch of stripes, rising to share by the end.
      */
-    private void applyRadialGradient(Grid grid, float strength) {
+    private void classify(SquareGrid grid, TileClassifier classifier, GenerationProgress progress,
+                          GenerationProgress.Stage stage, float share) {
         int width = grid.getWidth();
         int height = grid.getHeight();
-        float centerX = width / 2f;
-        float centerY = height / 2f;
-        float maxDist = (float) Math.sqrt(centerX * centerX + centerY * centerY);
-        
-        for (int x = 0; x < width; x++) {
-            for (int y = 0; y < height; y++) {
-                float dist = (float) Math.sqrt(
-                    (x - centerX) * (x - centerX) + 
-                    (y - centerY) * (y - centerY)
-                );
-                float factor = dist / maxDist * strength;
-                
-                // Apply gradient: further from center = lower elevation
-                grid.set(x, y, grid.get(x, y) - factor);
+        boolean parallel = parallelism > 1 && (long) width * height >= PARALLEL_CLASSIFICATION_THRESHOLD;
+        int stripeCount = (height + STRIPE_ROWS - 1) / STRIPE_ROWS;
+        // Stripes in flight at once, which bounds the buffer memory
+        int batchSize = parallel ? parallelism : 1;
+        
+        List<ForkJoinTask<GridRegion>> tasks = new ArrayList<>(batchSize);
+        for (int first = 0; first < stripeCount; first += batchSize) {
+            progress.report(stage, share * first / stripeCount);
+            int last = Math.min(first + batchSize, stripeCount);
+            for (int stripe = first; stripe < last; stripe++) {
+                int startY = stripe * STRIPE_ROWS;
+                int rows = Math.min(STRIPE_ROWS, height - startY);
+                if (parallel) {
+                    tasks.add(getPool().submit(() -> classifyStripe(classifier, width, startY, rows)));
+                } else {
+                    grid.pasteRegion(classifyStripe(classifier, width, startY, rows), 0, startY);
+                }
+            }
+            for (ForkJoinTask<GridRegion> task : tasks) {
+                GridRegion stripe = task.join();
+                grid.pasteRegion(stripe, stripe.getX(), stripe.getY());
             }
+            tasks.clear();
         }
     }
     
-    /**
-     * Apply central continent effect
-     */
-    private void applyCentralContinent(Grid grid, float strength) {
-        int width = grid.getWidth();
-        int height = grid.getHeight();
-        float centerX = width / 2f;
-        float centerY = height / 2f;
-        float maxDist = (float) Math.sqrt(centerX * centerX + centerY * centerY);
-        
-        for (int x = 0; x < width; x++) {
-            for (int y = 0; y < height; y++) {
-                float dist = (float) Math.sqrt(
-                    (x - centerX) * (x - centerX) + 
-                    (y - centerY) * (y - centerY)
-                );
-                
-                // Create continent in central area
-                float continentFactor;
-                if (dist < maxDist * 0.4f) {
-                    // Central area - raise height significantly
-                    continentFactor = 0.5f;
-                } else if (dist < maxDist * 0.7f) {
-                    // Transition zone
-                    float normalizedDist = (dist - maxDist * 0.4f) / (maxDist * 0.3f);
-                    continentFactor = 0.5f - normalizedDist * 0.7f;
-                } else {
-                    // Outer area - deep ocean
-                    continentFactor = -0.2f;
-                }
-                
-                grid.set(x, y, grid.get(x, y) + continentFactor * strength);
+    private static GridRegion classifyStripe(TileClassifier classifier, int width, int startY, int rows) {
+        GridRegion stripe = new GridRegion(0, startY, width, rows);
+        byte[] tiles = stripe.getTiles();
+        int i = 0;
+        for (int y = startY; y < startY + rows; y++) {
+            for (int x = 0; x < width; x++) {
+                tiles[i++] = (byte) classifier.classify(x, y);
             }
         }
+        return stripe;
+    }
+    
+    private ForkJoinPool getPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool(parallelism);
+        }
+        return pool;
     }
     
     /**
-     * Apply a north-south gradient for temperature simulation
+     * Radial gradient that lowers the height away from the centre, to
+     * create island-like shapes
      */
-    private void applyLatitudeGradient(Grid grid) {
-        int height = grid.getHeight();
+    private static float radialGradient(MapFields fields, int x, int y, float strength) {
+        // Further from center = lower elevation
+        return fields.getCentreDistance(x, y) / fields.getMaxDistance() * strength;
+    }
+    
+    /**
+     * Height offset that raises a large central continent
+     */
+    private static float centralContinent(MapFields fields, int x, int y, float strength) {
+        float maxDist = fields.getMaxDistance();
+        float dist = fields.getCentreDistance(x, y);
         
-        for (int x = 0; x < grid.getWidth(); x++) {
-            for (int y = 0; y < height; y++) {
-                // Calculate normalized latitude (0 at equator, 1 at poles)
-                float latitudeFactor = Math.abs(y - height / 2f) / (height / 2f);
-                grid.set(x, y, latitudeFactor);
-            }
+        float continentFactor;
+        if (dist < maxDist * 0.4f) {
+            // Central area - raise height significantly
+            continentFactor = 0.5f;
+        } else if (dist < maxDist * 0.7f) {
+            // Transition zone
+            float normalizedDist = (dist - maxDist * 0.4f) / (maxDist * 0.3f);
+            continentFactor = 0.5f - normalizedDist * 0.7f;
+        } else {
+            // Outer area - deep ocean
+            continentFactor = -0.2f;
         }
+        
+        return continentFactor * strength;
     }
     
+    
     /**
-     * Apply finishing touches to the world
+     * Shape the coast from one distance field: grass touching water becomes
+     * sand, deep water touching land turns shallow, and forest near the
+     * water thins out to grass (sand right at the shore), the more so the
+     * closer it is. Thinning is decided per tile from its world position
+     * (the grid's tiles start at originX, originY), so chunks agree.
+     *
+     * Distances are computed a stripe of rows at a time, plus the
+     * COAST_APRON rows above and below that can reach its coastal bands, so
+     * the scratch memory follows the width of the map rather than its area
+     * (a mapped world may not fit the heap). Shaping never turns land into
+     * water or back, so the rows above, already shaped, still measure true.
      */
-    private void applyFinishingTouches(SquareGrid grid, WorldType type) {
-        // Add beaches around water
-        addBeaches(grid);
+    private void shapeCoast(SquareGrid grid, WorldRandom random, int originX, int originY) {
+        int height = grid.getHeight();
         
-        // Add type-specific features
-        switch (type) {
-            case VOLCANIC:
-                addVolcanoes(grid);
-                break;
-            case PANGEA:
-                addMountainRanges(grid);
-                break;
-            case CONTINENTS:
-                addWalls(grid);
-                break;
+        for (int stripeY = 0; stripeY < height; stripeY += STRIPE_ROWS) {
+            int stripeEnd = Math.min(stripeY + STRIPE_ROWS, height);
+            int bandY = Math.max(stripeY - COAST_APRON, 0);
+            CoastDistance coast = new CoastDistance(grid, bandY, Math.min(stripeEnd + COAST_APRON, height) - bandY);
+            shapeCoastRows(grid, coast, random, originX, originY, stripeY, stripeEnd);
         }
     }
     
     /**
-     * Add beaches around water
-     */
-    private void addBeaches(SquareGrid grid) {
-        for (int x = 0; x < grid.getWidth(); x++) {
-            for (int y = 0; y < grid.getHeight(); y++) {
-                if (grid.getTile(x, y) == BiomeType.GRASS) {
-                    // Check if near water
-                    boolean nearWater = false;
-                    
-                    for (int dx = -1; dx <= 1; dx++) {
-                        for (int dy = -1; dy <= 1; dy++) {
-                            int nx = x + dx;
-                            int ny = y + dy;
-                            
-                            if (grid.isInBounds(nx, ny)) {
-                                BiomeType neighbor = grid.getTile(nx, ny);
-                                if (neighbor == BiomeType.SHALLOW_WATER || 
-                                    neighbor == BiomeType.DEEP_WATER) {
-                                    nearWater = true;
-                                    break;
-                                }
-                            }
-                        }
-                        if (nearWater) break;
+     * Shape the coast of rows startY to endY, which the distances cover
+     */
+    private void shapeCoastRows(SquareGrid grid, CoastDistance coast, WorldRandom random,
+                                int originX, int originY, int startY, int endY) {
+        final int grass = BiomeType.GRASS.ordinal();
+        final int forest = BiomeType.FOREST.ordinal();
+        final int deepWater = BiomeType.DEEP_WATER.ordinal();
+        for (int y = startY; y < endY; y++) {
+            for (int x = 0; x < grid.getWidth(); x++) {
+                int biome = grid.getOrdinal(x, y);
+                if (biome == deepWater) {
+                    if (coast.toLand(x, y) <= SHALLOW_RING_DISTANCE) {
+                        grid.setTile(x, y, BiomeType.SHALLOW_WATER);
                     }
-                    
-                    if (nearWater) {
-                        grid.setTile(x, y, BiomeType.SAND);
+                    continue;
+                }
+                
+                int toWater = coast.toWater(x, y);
+                if (biome == forest && toWater <= FOREST_THINNING_DISTANCE) {
+                    // From SHORE_THINNING next to the water down to nothing
+                    // just past the thinning distance
+                    float chance = SHORE_THINNING * (FOREST_THINNING_DISTANCE + CoastDistance.STRAIGHT - toWater)
+                        / FOREST_THINNING_DISTANCE;
+                    if (random.split(originX + x, originY + y).nextBoolean(chance)) {
+                        biome = grass;
+                        grid.setTile(x, y, BiomeType.GRASS);
                     }
                 }
+                if (biome == grass && toWater <= BEACH_DISTANCE) {
+                    grid.setTile(x, y, BiomeType.SAND);
+                }
             }
         }
     }
@@ -589,49 +946,31 @@ public class BiomeGenerator {
     /**
      * Add volcanoes to volcanic world type
      */
-    private void addVolcanoes(SquareGrid grid) {
+    private void addVolcanoes(SquareGrid grid, WorldRandom random) {
         // Add some lava pools and volcanic mountains
-        int numVolcanoes = MathUtils.random(3, 8);
+        int numVolcanoes = random.nextInt(3, 8);
         
         for (int i = 0; i < numVolcanoes; i++) {
-            int x = MathUtils.random(grid.getWidth() / 4, grid.getWidth() * 3 / 4);
-            int y = MathUtils.random(grid.getHeight() / 4, grid.getHeight() * 3 / 4);
+            WorldRandom volcanoRandom = random.split(i);
+            int x = volcanoRandom.nextInt(grid.getWidth() / 4, grid.getWidth() * 3 / 4);
+            int y = volcanoRandom.nextInt(grid.getHeight() / 4, grid.getHeight() * 3 / 4);
             
-            // Create volcano crater
-            int craterRadius = MathUtils.random(2, 4);
-            
-            for (int dx = -craterRadius; dx <= craterRadius; dx++) {
-                for (int dy = -craterRadius; dy <= craterRadius; dy++) {
-                    int nx = x + dx;
-                    int ny = y + dy;
-                    
-                    if (grid.isInBounds(nx, ny)) {
-                        float dist = distance(nx, ny, x, y);
-                        
-                        if (dist <= craterRadius) {
-                            if (dist < craterRadius * 0.6f) {
-                                // Center - lava
-                                grid.setTile(nx, ny, BiomeType.LAVA);
-                            } else {
-                                // Rim - mountains
-                                grid.setTile(nx, ny, BiomeType.MOUNTAINS);
-                            }
-                        }
-                    }
-                }
-            }
+            // Create volcano crater: mountain rim with a lava centre
+            int craterRadius = volcanoRandom.nextInt(2, 4);
+            grid.fillCircle(x, y, craterRadius, BiomeType.MOUNTAINS);
+            grid.fillCircle(x, y, craterRadius * 0.6f, BiomeType.LAVA);
             
             // Create lava flow
-            addLavaFlow(grid, x, y, MathUtils.random(5, 15));
+            addLavaFlow(grid, x, y, volcanoRandom.nextInt(5, 15), volcanoRandom);
         }
     }
     
     /**
      * Add a lava flow from a volcano
      */
-    private void addLavaFlow(SquareGrid grid, int startX, int startY, int length) {
+    private void addLavaFlow(SquareGrid grid, int startX, int startY, int length, WorldRandom random) {
         // Pick a random direction
-        float angle = MathUtils.random(MathUtils.PI2);
+        float angle = random.nextFloat(0, MathUtils.PI2);
         int dx = (int)Math.round(Math.cos(angle));
         int dy = (int)Math.round(Math.sin(angle));
         
@@ -648,8 +987,8 @@ public class BiomeGenerator {
             grid.setTile(x, y, BiomeType.LAVA);
             
             // Randomly change direction slightly
-            if (MathUtils.randomBoolean(0.3f)) {
-                angle += MathUtils.random(-0.5f, 0.5f);
+            if (random.nextBoolean(0.3f)) {
+                angle += random.nextFloat(-0.5f, 0.5f);
                 dx = (int)Math.round(Math.cos(angle));
                 dy = (int)Math.round(Math.sin(angle));
             }
@@ -659,16 +998,17 @@ public class BiomeGenerator {
     /**
      * Add mountain ranges to pangea world
      */
-    private void addMountainRanges(SquareGrid grid) {
-        int numRanges = MathUtils.random(2, 5);
+    private void addMountainRanges(SquareGrid grid, WorldRandom random) {
+        int numRanges = random.nextInt(2, 5);
         
         for (int i = 0; i < numRanges; i++) {
-            int startX = MathUtils.random(grid.getWidth() / 4, grid.getWidth() * 3 / 4);
-            int startY = MathUtils.random(grid.getHeight() / 4, grid.getHeight() * 3 / 4);
-            int length = MathUtils.random(10, 30);
+            WorldRandom rangeRandom = random.split(i);
+            int startX = rangeRandom.nextInt(grid.getWidth() / 4, grid.getWidth() * 3 / 4);
+            int startY = rangeRandom.nextInt(grid.getHeight() / 4, grid.getHeight() * 3 / 4);
+            int length = rangeRandom.nextInt(10, 30);
             
             // Create mountain range
-            float angle = MathUtils.random(MathUtils.PI2);
+            float angle = rangeRandom.nextFloat(0, MathUtils.PI2);
             int dx = (int)Math.round(Math.cos(angle));
             int dy = (int)Math.round(Math.sin(angle));
             
@@ -677,29 +1017,12 @@ public class BiomeGenerator {
             
             for (int j = 0; j < length; j++) {
                 // Width of the range
-                int width = MathUtils.random(1, 3);
+                int width = rangeRandom.nextInt(1, 3);
                 
-                for (int wx = -width; wx <= width; wx++) {
-                    for (int wy = -width; wy <= width; wy++) {
-                        int nx = x + wx;
-                        int ny = y + wy;
-                        
-                        if (grid.isInBounds(nx, ny)) {
-                            float dist = distance(nx, ny, x, y);
-                            
-                            if (dist <= width) {
-                                // Use mountains/snow/hills based on distance from center
-                                if (dist < width * 0.3f) {
-                                    grid.setTile(nx, ny, BiomeType.SNOW);
-                                } else if (dist < width * 0.7f) {
-                                    grid.setTile(nx, ny, BiomeType.MOUNTAINS);
-                                } else {
-                                    grid.setTile(nx, ny, BiomeType.HILLS);
-                                }
-                            }
-                        }
-                    }
-                }
+                // Use mountains/snow/hills based on distance from center
+                grid.fillCircle(x, y, width, BiomeType.HILLS);
+                grid.fillCircle(x, y, width * 0.7f, BiomeType.MOUNTAINS);
+                grid.fillCircle(x, y, width * 0.3f, BiomeType.SNOW);
                 
                 // Move along the range
                 x += dx;
@@ -708,8 +1031,8 @@ public class BiomeGenerator {
                 if (!grid.isInBounds(x, y)) break;
                 
                 // Randomly change direction slightly
-                if (MathUtils.randomBoolean(0.2f)) {
-                    angle += MathUtils.random(-0.3f, 0.3f);
+                if (rangeRandom.nextBoolean(0.2f)) {
+                    angle += rangeRandom.nextFloat(-0.3f, 0.3f);
                     dx = (int)Math.round(Math.cos(angle));
                     dy = (int)Math.round(Math.sin(angle));
                 }
@@ -720,30 +1043,31 @@ public class BiomeGenerator {
     /**
      * Add walls to continents world
      */
-    private void addWalls(SquareGrid grid) {
+    private void addWalls(SquareGrid grid, WorldRandom random) {
         // Add some wall structures
-        int numStructures = MathUtils.random(3, 8);
+        int numStructures = random.nextInt(3, 8);
         
         for (int i = 0; i < numStructures; i++) {
-            int startX = MathUtils.random(grid.getWidth() / 4, grid.getWidth() * 3 / 4);
-            int startY = MathUtils.random(grid.getHeight() / 4, grid.getHeight() * 3 / 4);
+            WorldRandom structureRandom = random.split(i);
+            int startX = structureRandom.nextInt(grid.getWidth() / 4, grid.getWidth() * 3 / 4);
+            int startY = structureRandom.nextInt(grid.getHeight() / 4, grid.getHeight() * 3 / 4);
             
             // Choose structure type
-            int type = MathUtils.random(2);
+            int type = structureRandom.nextInt(0, 2);
             
             switch (type) {
                 case 0:
                     // Wall line
-                    addWallLine(grid, startX, startY, MathUtils.random(5, 15));
+                    addWallLine(grid, startX, startY, structureRandom.nextInt(5, 15), structureRandom);
                     break;
                 case 1:
                     // Wall circle
-                    addWallCircle(grid, startX, startY, MathUtils.random(3, 7));
+                    addWallCircle(grid, startX, startY, structureRandom.nextInt(3, 7));
                     break;
                 case 2:
                     // Wall rectangle
                     addWallRectangle(grid, startX, startY, 
-                                   MathUtils.random(4, 10), MathUtils.random(4, 10));
+                                   structureRandom.nextInt(4, 10), structureRandom.nextInt(4, 10));
                     break;
             }
         }
@@ -752,8 +1076,8 @@ public class BiomeGenerator {
     /**
      * Add a line of wall tiles
      */
-    private void addWallLine(SquareGrid grid, int startX, int startY, int length) {
-        float angle = MathUtils.random(MathUtils.PI2);
+    private void addWallLine(SquareGrid grid, int startX, int startY, int length, WorldRandom random) {
+        float angle = random.nextFloat(0, MathUtils.PI2);
         int dx = (int)Math.round(Math.cos(angle));
         int dy = (int)Math.round(Math.sin(angle));
         
@@ -776,15 +1100,19 @@ public class BiomeGenerator {
      * Add a circle of wall tiles
      */
     private void addWallCircle(SquareGrid grid, int centerX, int centerY, int radius) {
-        for (int x = centerX - radius; x <= centerX + radius; x++) {
-            for (int y = centerY - radius; y <= centerY + radius; y++) {
-                if (grid.isInBounds(x, y)) {
-                    float dist = distance(x, y, centerX, centerY);
-                    
-                    // Only place walls on the circle edge
-                    if (Math.abs(dist - radius) < 0.8f) {
-                        grid.setTile(x, y, BiomeType.WALL);
-                    }
+        // Clip the bounding box once instead of checking every tile
+        int minX = Math.max(centerX - radius, 0);
+        int maxX = Math.min(centerX + radius, grid.getWidth() - 1);
+        int minY = Math.max(centerY - radius, 0);
+        int maxY = Math.min(centerY + radius, grid.getHeight() - 1);
+        
+        for (int y = minY; y <= maxY; y++) {
+            for (int x = minX; x <= maxX; x++) {
+                float dist = distance(x, y, centerX, centerY);
+                
+                // Only place walls on the circle edge
+                if (Math.abs(dist - radius) < 0.8f) {
+                    grid.setTile(x, y, BiomeType.WALL);
                 }
             }
         }
@@ -799,24 +1127,11 @@ public class BiomeGenerator {
         int endX = startX + width;
         int endY = startY + height;
         
-        // Draw the rectangle borders
-        for (int x = startX; x <= endX; x++) {
-            if (grid.isInBounds(x, startY)) {
-                grid.setTile(x, startY, BiomeType.WALL);
-            }
-            if (grid.isInBounds(x, endY)) {
-                grid.setTile(x, endY, BiomeType.WALL);
-            }
-        }
-        
-        for (int y = startY + 1; y < endY; y++) {
-            if (grid.isInBounds(startX, y)) {
-                grid.setTile(startX, y, BiomeType.WALL);
-            }
-            if (grid.isInBounds(endX, y)) {
-                grid.setTile(endX, y, BiomeType.WALL);
-            }
-        }
+        // Draw the rectangle borders (the grid clips them at the map edge)
+        grid.fillRowSpan(startY, startX, endX, BiomeType.WALL);
+        grid.fillRowSpan(endY, startX, endX, BiomeType.WALL);
+        grid.fillRect(startX, startY + 1, 1, endY - startY - 1, BiomeType.WALL);
+        grid.fillRect(endX, startY + 1, 1, endY - startY - 1, BiomeType.WALL);
     }
     
     /**
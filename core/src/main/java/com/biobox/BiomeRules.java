@@ -0,0 +1,333 @@
+package com.biobox;
+
+import com.badlogic.gdx.Gdx;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Biome classification rules per world type, read from a data file so
+ * thresholds can be retuned without a build. Each world type's rules are
+ * compiled into a {@link BiomeTable} the first time they are needed.
+ *
+ * The file has one section per world type:
+ * <pre>
+ * [CLASSIC]
+ * axis height    0 0.7 256
+ * axis variation 0 0.6 128
+ * DEEP_WATER     height &lt; 0.15
+ * GRASS          height &lt; 0.8, variation &lt; 0.6
+ * MOUNTAINS
+ * </pre>
+ * "axis" lines declare up to three inputs with their range and number of
+ * buckets, in the order the generator passes them. Every other line is a
+ * biome followed by comma-separated conditions on the axes; the first rule
+ * whose conditions all hold decides the biome, so the last rule of a section
+ * must have none. Text after '#' is a comment.
+ */
+public class BiomeRules {
+    // Rules shipped with the game, relative to the assets directory
+    public static final String DEFAULT_PATH = "data/biomes.txt";
+
+    private static final int MAX_AXES = 3;
+    // Largest table a section may compile to, in bytes
+    private static final long MAX_TABLE_SIZE = 16L * 1024 * 1024;
+
+    private static final Pattern CONDITION = Pattern.compile("(\\w+)\\s*(<=|>=|<|>)\\s*(\\S+)");
+
+    private final EnumMap<BiomeGenerator.WorldType, Section> sections;
+    private final EnumMap<BiomeGenerator.WorldType, BiomeTable> tables =
+        new EnumMap<>(BiomeGenerator.WorldType.class);
+
+    private BiomeRules(EnumMap<BiomeGenerator.WorldType, Section> sections) {
+        this.sections = sections;
+    }
+
+    /**
+     * Load the rules shipped in the assets directory (or, without a running
+     * application, from the classpath)
+     */
+    public static BiomeRules loadDefault() {
+        InputStream in = Gdx.files != null
+            ? Gdx.files.internal(DEFAULT_PATH).read()
+            : BiomeRules.class.getResourceAsStream("/" + DEFAULT_PATH);
+        if (in == null) {
+            throw new IllegalStateException("Biome rules not found: " + DEFAULT_PATH);
+        }
+        try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            return parse(reader);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read biome rules: " + DEFAULT_PATH, e);
+        }
+    }
+
+    /**
+     * Parse rules in the format described above. Malformed lines are
+     * reported as an IllegalArgumentException naming the line.
+     */
+    public static BiomeRules parse(Reader reader) throws IOException {
+        EnumMap<BiomeGenerator.WorldType, Section> sections = new EnumMap<>(BiomeGenerator.WorldType.class);
+        BufferedReader lines = new BufferedReader(reader);
+        Section section = null;
+        String line;
+        int lineNumber = 0;
+
+        while ((line = lines.readLine()) != null) {
+            lineNumber++;
+            int comment = line.indexOf('#');
+            if (comment >= 0) {
+                line = line.substring(0, comment);
+            }
+            line = line.trim();
+            if (line.isEmpty()) continue;
+
+            try {
+                if (line.startsWith("[") && line.endsWith("]")) {
+                    if (section != null) section.validate();
+                    BiomeGenerator.WorldType type = parseEnum(BiomeGenerator.WorldType.class,
+                        line.substring(1, line.length() - 1).trim(), "world type");
+                    section = new Section(type);
+                    if (sections.put(type, section) != null) {
+                        throw new IllegalArgumentException("Duplicate section " + type);
+                    }
+                } else if (section == null) {
+                    throw new IllegalArgumentException("Rule outside of a [WORLD_TYPE] section");
+                } else if (line.startsWith("axis ")) {
+                    section.addAxis(line.substring(5).trim());
+                } else {
+                    section.addRule(line);
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Line " + lineNumber + ": " + e.getMessage(), e);
+            }
+        }
+        if (section != null) section.validate();
+        return new BiomeRules(sections);
+    }
+
+    public boolean hasRules(BiomeGenerator.WorldType type) {
+        return sections.containsKey(type);
+    }
+
+    /**
+     * The compiled table for a world type, built on first request
+     */
+    public synchronized BiomeTable getTable(BiomeGenerator.WorldType type) {
+        BiomeTable table = tables.get(type);
+        if (table == null) {
+            Section section = sections.get(type);
+            if (section == null) {
+                throw new IllegalArgumentException("No biome rules for " + type);
+            }
+            table = section.compile();
+            tables.put(type, table);
+        }
+        return table;
+    }
+
+    private static <E extends Enum<E>> E parseEnum(Class<E> type, String name, String what) {
+        try {
+            return Enum.valueOf(type, name);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown " + what + " " + name);
+        }
+    }
+
+    private static float parseFloat(String value) {
+        try {
+            return Float.parseFloat(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number: " + value);
+        }
+    }
+
+    /**
+     * One input of the table
+     */
+    private static class Axis {
+        final String name;
+        final float minimum;
+        final float maximum;
+        final int buckets;
+
+        Axis(String name, float minimum, float maximum, int buckets) {
+            this.name = name;
+            this.minimum = minimum;
+            this.maximum = maximum;
+            this.buckets = buckets;
+        }
+    }
+
+    /**
+     * "axis op value", e.g. height < 0.15
+     */
+    private static class Condition {
+        final int axis;
+        final String operator;
+        final float value;
+
+        Condition(int axis, String operator, float value) {
+            this.axis = axis;
+            this.operator = operator;
+            this.value = value;
+        }
+
+        boolean holds(float[] inputs) {
+            float input = inputs[axis];
+            switch (operator) {
+                case "<": return input < value;
+                case "<=": return input <= value;
+                case ">": return input > value;
+                default: return input >= value;
+            }
+        }
+    }
+
+    private static class Rule {
+        final BiomeType biome;
+        final Condition[] conditions;
+
+        Rule(BiomeType biome, Condition[] conditions) {
+            this.biome = biome;
+            this.conditions = conditions;
+        }
+
+        boolean matches(float[] inputs) {
+            for (Condition condition : conditions) {
+                if (!condition.holds(inputs)) return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * The axes and rules of one world type
+     */
+    private static class Section {
+        final BiomeGenerator.WorldType type;
+        final List<Axis> axes = new ArrayList<>();
+        final List<Rule> rules = new ArrayList<>();
+
+        Section(BiomeGenerator.WorldType type) {
+            this.type = type;
+        }
+
+        void addAxis(String declaration) {
+            if (!rules.isEmpty()) {
+                throw new IllegalArgumentException("Axes must be declared before the rules");
+            }
+            if (axes.size() == MAX_AXES) {
+                throw new IllegalArgumentException("At most " + MAX_AXES + " axes");
+            }
+            String[] parts = declaration.split("\\s+");
+            if (parts.length != 4) {
+                throw new IllegalArgumentException("Expected \"axis <name> <min> <max> <buckets>\"");
+            }
+            if (findAxis(parts[0]) >= 0) {
+                throw new IllegalArgumentException("Duplicate axis " + parts[0]);
+            }
+            float minimum = parseFloat(parts[1]);
+            float maximum = parseFloat(parts[2]);
+            int buckets = (int) parseFloat(parts[3]);
+            if (!(maximum > minimum) || buckets < 1) {
+                throw new IllegalArgumentException("Axis " + parts[0] + " needs min < max and at least 1 bucket");
+            }
+            axes.add(new Axis(parts[0], minimum, maximum, buckets));
+
+            long size = 1;
+            for (Axis axis : axes) size *= axis.buckets;
+            if (size > MAX_TABLE_SIZE) {
+                throw new IllegalArgumentException("Table for " + type + " would take " + size + " bytes");
+            }
+        }
+
+        void addRule(String line) {
+            int split = line.indexOf(' ');
+            String biomeName = split < 0 ? line : line.substring(0, split);
+            BiomeType biome = parseEnum(BiomeType.class, biomeName, "biome");
+
+            List<Condition> conditions = new ArrayList<>();
+            if (split >= 0) {
+                for (String text : line.substring(split + 1).split(",")) {
+                    Matcher matcher = CONDITION.matcher(text.trim());
+                    if (!matcher.matches()) {
+                        throw new IllegalArgumentException("Bad condition \"" + text.trim() + "\"");
+                    }
+                    int axis = findAxis(matcher.group(1));
+                    if (axis < 0) {
+                        throw new IllegalArgumentException("Unknown axis " + matcher.group(1));
+                    }
+                    conditions.add(new Condition(axis, matcher.group(2), parseFloat(matcher.group(3))));
+                }
+            }
+            rules.add(new Rule(biome, conditions.toArray(new Condition[0])));
+        }
+
+        void validate() {
+            if (axes.isEmpty()) {
+                throw new IllegalArgumentException(type + " declares no axes");
+            }
+            if (rules.isEmpty() || rules.get(rules.size() - 1).conditions.length > 0) {
+                throw new IllegalArgumentException(
+                    "The last rule of " + type + " must have no conditions, so every tile gets a biome");
+            }
+        }
+
+        /**
+         * Evaluate the rules at the centre of every bucket
+         */
+        BiomeTable compile() {
+            float[] minimum = {0, 0, 0};
+            float[] maximum = {1, 1, 1};
+            int[] buckets = {1, 1, 1};
+            for (int i = 0; i < axes.size(); i++) {
+                minimum[i] = axes.get(i).minimum;
+                maximum[i] = axes.get(i).maximum;
+                buckets[i] = axes.get(i).buckets;
+            }
+
+            byte[] table = new byte[buckets[0] * buckets[1] * buckets[2]];
+            float[] inputs = new float[MAX_AXES];
+            int index = 0;
+            for (int a = 0; a < buckets[0]; a++) {
+                inputs[0] = center(minimum[0], maximum[0], buckets[0], a);
+                for (int b = 0; b < buckets[1]; b++) {
+                    inputs[1] = center(minimum[1], maximum[1], buckets[1], b);
+                    for (int c = 0; c < buckets[2]; c++) {
+                        inputs[2] = center(minimum[2], maximum[2], buckets[2], c);
+                        table[index++] = (byte) firstMatch(inputs).ordinal();
+                    }
+                }
+            }
+            return new BiomeTable(minimum, maximum, buckets, table);
+        }
+
+        private BiomeType firstMatch(float[] inputs) {
+            for (Rule rule : rules) {
+                if (rule.matches(inputs)) return rule.biome;
+            }
+            // Unreachable: validate() requires an unconditional last rule
+            return rules.get(rules.size() - 1).biome;
+        }
+
+        private int findAxis(String name) {
+            for (int i = 0; i < axes.size(); i++) {
+                if (axes.get(i).name.equals(name)) return i;
+            }
+            return -1;
+        }
+
+        private static float center(float minimum, float maximum, int buckets, int bucket) {
+            return minimum + (bucket + 0.5f) * (maximum - minimum) / buckets;
+        }
+    }
+}
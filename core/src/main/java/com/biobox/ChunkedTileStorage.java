@@ -0,0 +1,283 @@
+package com.biobox;
+
+import java.util.Arrays;
+
+/**
+ * Tile storage split into fixed-size square chunks that are only allocated
+ * when first written with a different biome. Until then a chunk is "uniform"
+ * and costs a single byte, which keeps large, mostly empty worlds (open ocean)
+ * cheap to create and hold.
+ *
+ * Snapshots share chunk arrays copy-on-write: taking one costs a pass over
+ * the chunk table, and a shared chunk is only cloned when either side next
+ * writes to it.
+ */
+public class ChunkedTileStorage implements TileStorage {
+    public static final int CHUNK_SHIFT = 6;
+    public static final int CHUNK_SIZE = 1 << CHUNK_SHIFT; // 64x64 tiles per chunk
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final int width;
+    private final int height;
+    private final int chunksX;
+    private final int chunksY;
+
+    // Row-major tiles of each allocated chunk, null while the chunk is uniform
+    private final byte[][] chunks;
+    // Biome of every tile in a chunk that has not been allocated
+    private final byte[] uniform;
+    // Chunks whose array is also referenced by a snapshot and must be cloned before writing
+    private final boolean[] shared;
+
+    public ChunkedTileStorage(int width, int height, BiomeType fill) {
+        this.width = width;
+        this.height = height;
+        this.chunksX = (width + CHUNK_MASK) >> CHUNK_SHIFT;
+        this.chunksY = (height + CHUNK_MASK) >> CHUNK_SHIFT;
+        this.chunks = new byte[chunksX * chunksY][];
+        this.uniform = new byte[chunksX * chunksY];
+        this.shared = new boolean[chunksX * chunksY];
+        Arrays.fill(uniform, (byte) fill.ordinal());
+    }
+
+    private ChunkedTileStorage(ChunkedTileStorage source) {
+        this.width = source.width;
+        this.height = source.height;
+        this.chunksX = source.chunksX;
+        this.chunksY = source.chunksY;
+        this.chunks = source.chunks.clone();
+        this.uniform = source.uniform.clone();
+        this.shared = new boolean[chunks.length];
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public int get(int x, int y) {
+        int chunk = (y >> CHUNK_SHIFT) * chunksX + (x >> CHUNK_SHIFT);
+        byte[] tiles = chunks[chunk];
+        if (tiles == null) {
+            return uniform[chunk];
+        }
+        return tiles[((y & CHUNK_MASK) << CHUNK_SHIFT) | (x & CHUNK_MASK)];
+    }
+
+    @Override
+    public void set(int x, int y, int ordinal) {
+        int chunk = (y >> CHUNK_SHIFT) * chunksX + (x >> CHUNK_SHIFT);
+        byte[] tiles = chunks[chunk];
+        if (tiles == null) {
+            // Writing the chunk's own biome changes nothing
+            if (uniform[chunk] == ordinal) return;
+            tiles = allocateChunk(chunk);
+        } else if (shared[chunk]) {
+            tiles = unshareChunk(chunk);
+        }
+        tiles[((y & CHUNK_MASK) << CHUNK_SHIFT) | (x & CHUNK_MASK)] = (byte) ordinal;
+    }
+
+    @Override
+    public void fillRect(int x, int y, int width, int height, int ordinal) {
+        int maxX = x + width - 1;
+        int maxY = y + height - 1;
+
+        for (int cy = y >> CHUNK_SHIFT; cy <= maxY >> CHUNK_SHIFT; cy++) {
+            int chunkY = cy << CHUNK_SHIFT;
+            int fromY = Math.max(y, chunkY);
+            int toY = Math.min(maxY, chunkY + CHUNK_MASK);
+
+            for (int cx = x >> CHUNK_SHIFT; cx <= maxX >> CHUNK_SHIFT; cx++) {
+                int chunk = cy * chunksX + cx;
+                int chunkX = cx << CHUNK_SHIFT;
+                int fromX = Math.max(x, chunkX);
+                int toX = Math.min(maxX, chunkX + CHUNK_MASK);
+
+                // A chunk covered up to the map edge becomes uniform again
+                if (fromX == chunkX && fromY == chunkY
+                        && toX >= Math.min(chunkX + CHUNK_MASK, this.width - 1)
+                        && toY >= Math.min(chunkY + CHUNK_MASK, this.height - 1)) {
+                    chunks[chunk] = null;
+                    uniform[chunk] = (byte) ordinal;
+                    shared[chunk] = false;
+                    continue;
+                }
+
+                byte[] tiles = chunks[chunk];
+                if (tiles == null) {
+                    if (uniform[chunk] == ordinal) continue;
+                    tiles = allocateChunk(chunk);
+                } else if (shared[chunk]) {
+                    tiles = unshareChunk(chunk);
+                }
+                for (int ty = fromY; ty <= toY; ty++) {
+                    int row = (ty & CHUNK_MASK) << CHUNK_SHIFT;
+                    Arrays.fill(tiles, row + (fromX & CHUNK_MASK), row + (toX & CHUNK_MASK) + 1, (byte) ordinal);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void getRow(int y, int x, int length, byte[] dst, int offset) {
+        int chunkRow = (y >> CHUNK_SHIFT) * chunksX;
+        int row = (y & CHUNK_MASK) << CHUNK_SHIFT;
+        int end = x + length;
+
+        while (x < end) {
+            int chunk = chunkRow + (x >> CHUNK_SHIFT);
+            int run = Math.min(end - x, CHUNK_SIZE - (x & CHUNK_MASK));
+            byte[] tiles = chunks[chunk];
+            if (tiles == null) {
+                Arrays.fill(dst, offset, offset + run, uniform[chunk]);
+            } else {
+                System.arraycopy(tiles, row + (x & CHUNK_MASK), dst, offset, run);
+            }
+            x += run;
+            offset += run;
+        }
+    }
+
+    @Override
+    public void setRow(int y, int x, int length, byte[] src, int offset) {
+        int chunkRow = (y >> CHUNK_SHIFT) * chunksX;
+        int row = (y & CHUNK_MASK) << CHUNK_SHIFT;
+        int end = x + length;
+
+        while (x < end) {
+            int chunk = chunkRow + (x >> CHUNK_SHIFT);
+            int run = Math.min(end - x, CHUNK_SIZE - (x & CHUNK_MASK));
+            byte[] tiles = chunks[chunk];
+            if (tiles == null) {
+                tiles = allocateChunk(chunk);
+            } else if (shared[chunk]) {
+                tiles = unshareChunk(chunk);
+            }
+            System.arraycopy(src, offset, tiles, row + (x & CHUNK_MASK), run);
+            x += run;
+            offset += run;
+        }
+    }
+
+    @Override
+    public int getRunEnd(int x, int y) {
+        int ordinal = get(x, y);
+        int chunkRow = (y >> CHUNK_SHIFT) * chunksX;
+        int row = (y & CHUNK_MASK) << CHUNK_SHIFT;
+
+        int end = x;
+        while (end < width) {
+            int chunk = chunkRow + (end >> CHUNK_SHIFT);
+            int chunkEnd = Math.min((chunk - chunkRow + 1) << CHUNK_SHIFT, width);
+            byte[] tiles = chunks[chunk];
+            if (tiles == null) {
+                // Uniform chunks are skipped whole
+                if (uniform[chunk] != ordinal) return end;
+                end = chunkEnd;
+                continue;
+            }
+            for (; end < chunkEnd; end++) {
+                if (tiles[row + (end & CHUNK_MASK)] != ordinal) return end;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Share every allocated chunk with the snapshot; whichever side writes
+     * to a shared chunk first gets its own copy
+     */
+    @Override
+    public TileStorage snapshot() {
+        ChunkedTileStorage snapshot = new ChunkedTileStorage(this);
+        for (int chunk = 0; chunk < chunks.length; chunk++) {
+            if (chunks[chunk] != null) {
+                shared[chunk] = true;
+                snapshot.shared[chunk] = true;
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Give this storage its own copy of a chunk shared with a snapshot
+     */
+    private byte[] unshareChunk(int chunk) {
+        byte[] tiles = chunks[chunk].clone();
+        chunks[chunk] = tiles;
+        shared[chunk] = false;
+        return tiles;
+    }
+
+    /**
+     * Turn a uniform chunk into an allocated one holding the same biome
+     */
+    private byte[] allocateChunk(int chunk) {
+        byte[] tiles = new byte[CHUNK_SIZE * CHUNK_SIZE];
+        Arrays.fill(tiles, uniform[chunk]);
+        chunks[chunk] = tiles;
+        return tiles;
+    }
+
+    /**
+     * Collapse allocated chunks whose tiles are all the same biome back to
+     * the uniform representation
+     */
+    @Override
+    public void compact() {
+        for (int chunk = 0; chunk < chunks.length; chunk++) {
+            byte[] tiles = chunks[chunk];
+            if (tiles == null) continue;
+
+            // Only the part of an edge chunk that lies inside the map counts
+            int cx = chunk % chunksX;
+            int cy = chunk / chunksX;
+            int usedWidth = Math.min(CHUNK_SIZE, width - (cx << CHUNK_SHIFT));
+            int usedHeight = Math.min(CHUNK_SIZE, height - (cy << CHUNK_SHIFT));
+
+            byte first = tiles[0];
+            boolean isUniform = true;
+            for (int ly = 0; ly < usedHeight && isUniform; ly++) {
+                int row = ly << CHUNK_SHIFT;
+                for (int lx = 0; lx < usedWidth; lx++) {
+                    if (tiles[row + lx] != first) {
+                        isUniform = false;
+                        break;
+                    }
+                }
+            }
+
+            if (isUniform) {
+                uniform[chunk] = first;
+                chunks[chunk] = null;
+                shared[chunk] = false;
+            }
+        }
+    }
+
+    /**
+     * Number of chunks currently holding their own tile array
+     */
+    public int getAllocatedChunkCount() {
+        int count = 0;
+        for (byte[] tiles : chunks) {
+            if (tiles != null) count++;
+        }
+        return count;
+    }
+
+    public int getChunksX() {
+        return chunksX;
+    }
+
+    public int getChunksY() {
+        return chunksY;
+    }
+}
@@ -0,0 +1,88 @@
+package com.biobox;
+
+import java.util.BitSet;
+
+/**
+ * Records which regions of a {@link SquareGrid} changed since its consumer
+ * last looked. Each consumer (renderer, minimap, statistics, autosave) asks
+ * the grid for its own tracker and drains it at its own pace.
+ */
+public class DirtyRegionTracker {
+    public static final int REGION_SHIFT = 4;
+    public static final int REGION_SIZE = 1 << REGION_SHIFT; // 16x16 tiles per region
+
+    /**
+     * Receives the tile rectangle of each drained region
+     */
+    public interface RegionVisitor {
+        void visit(int x, int y, int width, int height);
+    }
+
+    private final int width;
+    private final int height;
+    private final int regionsX;
+    private final int regionCount;
+    private final BitSet dirty;
+
+    DirtyRegionTracker(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.regionsX = (width + REGION_SIZE - 1) >> REGION_SHIFT;
+        this.regionCount = regionsX * ((height + REGION_SIZE - 1) >> REGION_SHIFT);
+        this.dirty = new BitSet(regionCount);
+    }
+
+    /**
+     * Mark the region containing a tile
+     */
+    void mark(int x, int y) {
+        dirty.set((y >> REGION_SHIFT) * regionsX + (x >> REGION_SHIFT));
+    }
+
+    /**
+     * Mark every region overlapping an (in-bounds, inclusive) tile rectangle
+     */
+    void mark(int minX, int minY, int maxX, int maxY) {
+        int fromX = minX >> REGION_SHIFT;
+        int toX = (maxX >> REGION_SHIFT) + 1;
+        for (int ry = minY >> REGION_SHIFT; ry <= maxY >> REGION_SHIFT; ry++) {
+            dirty.set(ry * regionsX + fromX, ry * regionsX + toX);
+        }
+    }
+
+    /**
+     * Mark the whole grid
+     */
+    public void markAll() {
+        dirty.set(0, regionCount);
+    }
+
+    public boolean isDirty() {
+        return !dirty.isEmpty();
+    }
+
+    /**
+     * Forget all changes without visiting them
+     */
+    public void clear() {
+        dirty.clear();
+    }
+
+    /**
+     * Visit every dirty region, clipped to the grid, clearing each as it goes
+     *
+     * @return number of regions visited
+     */
+    public int drain(RegionVisitor visitor) {
+        int visited = 0;
+        for (int region = dirty.nextSetBit(0); region >= 0; region = dirty.nextSetBit(region + 1)) {
+            // Clear before visiting so changes made by the visitor are kept
+            dirty.clear(region);
+            int x = (region % regionsX) << REGION_SHIFT;
+            int y = (region / regionsX) << REGION_SHIFT;
+            visitor.visit(x, y, Math.min(REGION_SIZE, width - x), Math.min(REGION_SIZE, height - y));
+            visited++;
+        }
+        return visited;
+    }
+}
@@ -0,0 +1,279 @@
+package com.biobox;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A front grid that is rendered and edited, plus a back grid that worlds are
+ * generated into on a worker thread. When generation finishes the result is
+ * published, and the render thread swaps it in with
+ * {@link #swapIfPublished()} in a single step, so rendering never waits on
+ * generation and never sees a half-written world.
+ *
+ * The front grid keeps its identity (renderers, histograms and journals stay
+ * attached); only its tiles are exchanged with the back buffer.
+ *
+ * Only the latest requested world matters: starting a new generation
+ * cancels the running one, whose result is then never swapped in.
+ *
+ * Where the world type allows it, coarse previews of the world (see
+ * {@link BiomeGenerator#generatePreview}) are offered first through
+ * {@link #getPreview()}, so a bad seed can be rejected long before the full
+ * world is done. They are drawn over the front grid, never written into
+ * it: until the swap the front grid holds the old world, edits included,
+ * and cancelling simply leaves it showing.
+ *
+ * The front world can be classified again, e.g. at another sea level, with
+ * {@link #reclassify}: it is generated once more through a memoizing
+ * {@link GenerationPipeline}, which samples its layers on the first call and
+ * keeps them, so later calls take milliseconds.
+ */
+public class DoubleBufferedGrid {
+    private final SquareGrid front;
+    private final SquareGrid back;
+    private final ExecutorService worker;
+
+    // The latest requested generation, until it is swapped in, cancelled or
+    // fails; only touched by the render thread
+    private GenerationProgress current;
+    // Set by the worker once the back grid holds that generation's world
+    private final AtomicReference<GenerationProgress> published = new AtomicReference<>();
+    // The latest preview the worker finished, not yet shown
+    private final AtomicReference<Preview> preview = new AtomicReference<>();
+    // The preview of the current generation to draw, or null; only
+    // touched by the render thread
+    private Preview shown;
+    // Seed and type of the front world, null before the first one; only
+    // touched by the render thread
+    private WorldCache.Key frontWorld;
+    // Those of the world in the back grid, written by the worker before
+    // it publishes
+    private volatile WorldCache.Key backWorld;
+    // Pipeline of the last world reclassified, which keeps its layers and
+    // stage outputs; only touched by the worker
+    private GenerationPipeline pipeline;
+    private BiomeGenerator.WorldType pipelineType;
+    private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+    
+    // Previously generated worlds, or null to always generate
+    private volatile WorldCache cache;
+
+    /**
+     * A coarse preview of a world being generated: tile (x, y) of the
+     * preview stands for the step x step block of world tiles from
+     * (x * step, y * step)
+     */
+    public static class Preview {
+        private final GenerationProgress progress;
+        private final SquareGrid tiles;
+        private final int step;
+
+        Preview(GenerationProgress progress, SquareGrid tiles, int step) {
+            this.progress = progress;
+            this.tiles = tiles;
+            this.step = step;
+        }
+
+        public SquareGrid getTiles() {
+            return tiles;
+        }
+
+        public int getStep() {
+            return step;
+        }
+    }
+
+    public DoubleBufferedGrid(SquareGrid front) {
+        this.front = front;
+        this.back = new SquareGrid(SquareGrid.createStorage(front.getWidth(), front.getHeight(), BiomeType.GRASS));
+        this.worker = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "world-generator");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * The grid to render and edit
+     */
+    public SquareGrid getFront() {
+        return front;
+    }
+
+    /**
+     * Seed and type of the world in the front grid, or null before the
+     * first one is swapped in. Render thread only.
+     */
+    public WorldCache.Key getFrontWorld() {
+        return frontWorld;
+    }
+
+    /**
+     * Reuse worlds from this cache where possible, and add newly generated
+     * ones to it (null to stop caching)
+     */
+    public void setCache(WorldCache cache) {
+        this.cache = cache;
+    }
+    
+    /**
+     * Start generating a world into the back grid, cancelling any generation
+     * still running. The generator's seed, sea level and rules are taken
+     * now; changing them later doesn't affect this world. Returns the new
+     * generation's progress.
+     */
+    public GenerationProgress generate(BiomeGenerator generator, BiomeGenerator.WorldType type) {
+        cancel();
+        GenerationProgress progress = new GenerationProgress();
+        current = progress;
+
+        // Picks the seed if the generator had none
+        GenerationParameters parameters = generator.getParameters();
+        // Worlds under a raised or lowered sea aren't the seed's usual world
+        WorldCache worldCache = parameters.getSeaLevel() == 0 ? cache : null;
+        WorldCache.Key key = new WorldCache.Key(parameters.getSeed(), type, back.getWidth(), back.getHeight(),
+            parameters.getRulesHash(type));
+        worker.execute(() -> {
+            // Replaced before it even started
+            if (progress.isCancelled()) return;
+            try {
+                if (worldCache != null && worldCache.load(key, back)) {
+                    back.compact();
+                    backWorld = key;
+                } else {
+                    SquareGrid coarser = null;
+                    if (BiomeGenerator.supportsPreview(type)) {
+                        // Each preview reuses the samples of the one before
+                        for (int step = BiomeGenerator.PREVIEW_STEP; step > 1; step /= 2) {
+                            coarser = generator.generatePreview(back.getWidth(), back.getHeight(),
+                                type, parameters, step, coarser, progress);
+                            preview.set(new Preview(progress, coarser, step));
+                        }
+                    }
+                    generator.generateWorld(back, type, parameters, progress, coarser);
+                    backWorld = key;
+                    if (worldCache != null) {
+                        worldCache.store(key, back);
+                    }
+                }
+                published.set(progress);
+            } catch (CancellationException e) {
+                // A newer world (or none) was asked for instead
+            } catch (RuntimeException e) {
+                failure.set(e);
+            }
+        });
+        return progress;
+    }
+
+    /**
+     * Classify the front world again, with the generator's current rules
+     * and sea level (taken now), in the background like {@link #generate}.
+     * The generator is set back to the front world's seed. Returns the
+     * progress, or null
+     * if there is no front world to reclassify (none generated yet, or an
+     * island world, which has no layers).
+     */
+    public GenerationProgress reclassify(BiomeGenerator generator) {
+        WorldCache.Key world = frontWorld;
+        if (world == null || !BiomeGenerator.supportsLayers(world.getType())) return null;
+
+        cancel();
+        GenerationProgress progress = new GenerationProgress();
+        current = progress;
+        generator.setSeed(world.getSeed());
+        GenerationParameters parameters = generator.getParameters();
+        worker.execute(() -> {
+            if (progress.isCancelled()) return;
+            try {
+                // The pipeline notices a new seed on its own, but not a new type
+                if (pipeline == null || pipelineType != world.getType()) {
+                    pipeline = generator.createPipeline(world.getType());
+                    pipelineType = world.getType();
+                }
+                generator.generateWorld(back, pipeline, parameters, progress);
+                // Under the rules it was classified with, which may have
+                // been retuned since the front world was made
+                backWorld = new WorldCache.Key(world.getSeed(), world.getType(), back.getWidth(), back.getHeight(),
+                    parameters.getRulesHash(world.getType()));
+                published.set(progress);
+            } catch (CancellationException e) {
+                // Another sea level (or world) was asked for instead
+            } catch (RuntimeException e) {
+                failure.set(e);
+            }
+        });
+        return progress;
+    }
+
+    /**
+     * Cancel the running generation, if any
+     */
+    public void cancel() {
+        if (current != null) {
+            current.cancel();
+            current = null;
+        }
+        shown = null;
+    }
+
+    /**
+     * Whether a generation is running or finished but not yet swapped in
+     */
+    public boolean isGenerating() {
+        return current != null;
+    }
+
+    /**
+     * Progress of the running generation, or null if there is none
+     */
+    public GenerationProgress getProgress() {
+        return current;
+    }
+
+    /**
+     * Swap a finished world into the front grid, or else pick up the latest
+     * preview of it for {@link #getPreview()}. Call once per frame from the
+     * render thread; returns true if the front grid changed. A failure on
+     * the worker is rethrown here.
+     */
+    public boolean swapIfPublished() {
+        RuntimeException error = failure.getAndSet(null);
+        if (error != null) {
+            current = null;
+            shown = null;
+            throw new RuntimeException("World generation failed", error);
+        }
+        // Worlds and previews that were replaced meanwhile are dropped
+        Preview latest = preview.getAndSet(null);
+        GenerationProgress finished = published.getAndSet(null);
+        if (finished != null && finished == current) {
+            front.swapStorage(back);
+            frontWorld = backWorld;
+            current = null;
+            shown = null;
+            return true;
+        }
+        if (latest != null && latest.progress == current) {
+            shown = latest;
+        }
+        return false;
+    }
+
+    /**
+     * The latest preview of the running generation, to draw in place of
+     * the front grid, or null if there is none. Render thread only.
+     */
+    public Preview getPreview() {
+        return shown;
+    }
+
+    /**
+     * Stop the worker thread. A running generation is abandoned.
+     */
+    public void dispose() {
+        worker.shutdownNow();
+    }
+}
@@ -0,0 +1,165 @@
+package com.biobox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * World generation as a chain of named stages (layers, classification,
+ * coast, features, ...), built by {@link BiomeGenerator#createPipeline}.
+ * A memoizing pipeline remembers each stage's last output together with a
+ * hash of everything that output depends on: the grid size, the hash of
+ * the stage before it and the stage's own parameters. Stages read the
+ * seed, sea level and rules only from the {@link GenerationParameters}
+ * each run is given, never from the generator, so the hashes always
+ * describe what actually ran. A run resumes after
+ * the latest stage whose hash still matches, so changing only the last
+ * stage re-runs only the last stage.
+ *
+ * Remembered outputs are grid snapshots, one per stage, so keep a
+ * memoizing pipeline only while its world is being tuned.
+ */
+public class GenerationPipeline {
+
+    /**
+     * One step of generation. Runs on the output of the stage before it, in
+     * place.
+     */
+    public abstract static class Stage {
+        private final String name;
+
+        protected Stage(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Hash of everything besides the previous stage's output that this
+         * stage's output depends on (seed, thresholds, ...), when run with
+         * these parameters
+         */
+        public abstract long getParameterHash(GenerationParameters parameters);
+
+        public abstract void run(State state, GenerationProgress progress);
+    }
+
+    /**
+     * What the stages work on: the tiles, plus the layers once a stage has
+     * sampled them, and the parameters of the run
+     */
+    public static class State {
+        private final SquareGrid grid;
+        private final GenerationParameters parameters;
+        private WorldLayers layers;
+
+        State(SquareGrid grid, GenerationParameters parameters) {
+            this.grid = grid;
+            this.parameters = parameters;
+        }
+
+        public SquareGrid getGrid() {
+            return grid;
+        }
+
+        public GenerationParameters getParameters() {
+            return parameters;
+        }
+
+        public WorldLayers getLayers() {
+            return layers;
+        }
+
+        public void setLayers(WorldLayers layers) {
+            this.layers = layers;
+        }
+    }
+
+    /**
+     * A stage's last output and the hash it was made under
+     */
+    private static class Memo {
+        final long hash;
+        final SquareGrid tiles;
+        final WorldLayers layers;
+
+        Memo(long hash, SquareGrid tiles, WorldLayers layers) {
+            this.hash = hash;
+            this.tiles = tiles;
+            this.layers = layers;
+        }
+    }
+
+    private final List<Stage> stages;
+    private final boolean memoizing;
+    private final Memo[] memos;
+    private int stagesRun;
+
+    public GenerationPipeline(List<Stage> stages, boolean memoizing) {
+        this.stages = Collections.unmodifiableList(new ArrayList<>(stages));
+        this.memoizing = memoizing;
+        this.memos = new Memo[stages.size()];
+    }
+
+    public List<Stage> getStages() {
+        return stages;
+    }
+
+    /**
+     * Run the stages into the grid with these parameters, skipping those
+     * whose remembered output still holds. If progress is cancelled
+     * meanwhile this throws a CancellationException; the stages finished so
+     * far stay remembered.
+     */
+    public void run(SquareGrid grid, GenerationParameters parameters, GenerationProgress progress) {
+        long[] hashes = new long[stages.size()];
+        long hash = WorldRandom.mix(((long) grid.getWidth() << 32) | grid.getHeight());
+        for (int i = 0; i < stages.size(); i++) {
+            Stage stage = stages.get(i);
+            hash = WorldRandom.mix(hash ^ stage.getName().hashCode());
+            hash = WorldRandom.mix(hash ^ stage.getParameterHash(parameters));
+            hashes[i] = hash;
+        }
+
+        // Resume after the last stage whose output is still valid
+        int first = 0;
+        for (int i = stages.size() - 1; i >= 0; i--) {
+            if (memos[i] != null && memos[i].hash == hashes[i]) {
+                first = i + 1;
+                break;
+            }
+        }
+
+        State state = new State(grid, parameters);
+        if (first > 0) {
+            // Copied, so the remembered output survives this run's writes
+            grid.swapStorage(memos[first - 1].tiles.snapshot());
+            state.setLayers(memos[first - 1].layers);
+        }
+        for (int i = first; i < stages.size(); i++) {
+            stages.get(i).run(state, progress);
+            if (memoizing) {
+                memos[i] = new Memo(hashes[i], grid.snapshot(), state.getLayers());
+            }
+        }
+        stagesRun = stages.size() - first;
+    }
+
+    /**
+     * How many stages the last run actually ran
+     */
+    public int getStagesRun() {
+        return stagesRun;
+    }
+
+    /**
+     * Forget all remembered outputs
+     */
+    public void clear() {
+        for (int i = 0; i < memos.length; i++) {
+            memos[i] = null;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.biobox;
+
+/**
+ * A rectangle of tiles copied out of a {@link SquareGrid}, stored as
+ * row-major biome ordinals. Used for clipboard-style copy and paste.
+ */
+public class GridRegion {
+    private final int x;
+    private final int y;
+    private final int width;
+    private final int height;
+    private final byte[] tiles;
+
+    GridRegion(int x, int y, int width, int height) {
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+        this.tiles = new byte[width * height];
+    }
+
+    /**
+     * Grid x coordinate the region was copied from
+     */
+    public int getX() {
+        return x;
+    }
+
+    /**
+     * Grid y coordinate the region was copied from
+     */
+    public int getY() {
+        return y;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Get the biome ordinal at a position relative to the region
+     */
+    public int getOrdinal(int localX, int localY) {
+        return tiles[localY * width + localX];
+    }
+
+    public BiomeType getTile(int localX, int localY) {
+        return BiomeType.fromOrdinal(getOrdinal(localX, localY));
+    }
+
+    byte[] getTiles() {
+        return tiles;
+    }
+}
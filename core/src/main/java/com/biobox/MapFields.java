@@ -0,0 +1,151 @@
+package com.biobox;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Per-tile values that depend only on the map size: each tile's distance
+ * from the map centre (for the radial gradients) and the distance of small
+ * offsets from a point (for island outlines). They
+ * are computed once per size and shared by every generation and world type
+ * of that size, so the gradient loops read a table instead of taking a
+ * square root per tile.
+ *
+ * The values are computed with the same float operations the generator
+ * used before the tables existed, so worlds come out exactly the same.
+ * Distances are symmetric about the centre, so only one quadrant is
+ * stored; maps too large for that to pay off compute them per tile.
+ *
+ * Latitudes depend only on the map height and take one division, so they
+ * are computed per row with {@link #latitude} instead of being cached:
+ * asking for them doesn't build tables for a size or push another size out.
+ */
+public final class MapFields {
+    // Largest quadrant table kept, in tiles (16 MB, a 4096 x 4096 map)
+    private static final int MAX_QUADRANT_TILES = 1 << 22;
+    // Map sizes kept; a seed sweep or the editor uses one or two at a time
+    private static final int CACHED_SIZES = 4;
+
+    private static final LinkedHashMap<Long, MapFields> cache =
+        new LinkedHashMap<Long, MapFields>(8, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, MapFields> eldest) {
+                return size() > CACHED_SIZES;
+            }
+        };
+
+    private final int width;
+    private final int height;
+    private final float centerX;
+    private final float centerY;
+    private final float maxDistance;
+    // Distance from the centre, for the quadrant of tiles right of and
+    // below it (column |2x - width| / 2, row |2y - height| / 2); null if
+    // the map is too large
+    private final float[] centreDistances;
+    private final int quadrantWidth;
+    // Length of (dx, dy) for 0 <= dx, dy <= offsetRange
+    private final float[] offsetDistances;
+    private final int offsetRange;
+
+    /**
+     * The fields of a width x height map, computed on first use
+     */
+    public static synchronized MapFields forSize(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid map size: " + width + "x" + height);
+        }
+        Long key = ((long) width << 32) | height;
+        MapFields fields = cache.get(key);
+        if (fields == null) {
+            fields = new MapFields(width, height);
+            cache.put(key, fields);
+        }
+        return fields;
+    }
+
+    private MapFields(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.centerX = width / 2f;
+        this.centerY = height / 2f;
+        this.maxDistance = (float) Math.sqrt(centerX * centerX + centerY * centerY);
+
+        quadrantWidth = width / 2 + 1;
+        int quadrantHeight = height / 2 + 1;
+        if ((long) quadrantWidth * quadrantHeight <= MAX_QUADRANT_TILES) {
+            centreDistances = new float[quadrantWidth * quadrantHeight];
+            int i = 0;
+            for (int row = 0; row < quadrantHeight; row++) {
+                // |y - centerY| of the rows this entry stands for
+                float dy = (2 * row + (height & 1)) / 2f;
+                for (int column = 0; column < quadrantWidth; column++) {
+                    float dx = (2 * column + (width & 1)) / 2f;
+                    centreDistances[i++] = (float) Math.sqrt(dx * dx + dy * dy);
+                }
+            }
+        } else {
+            centreDistances = null;
+        }
+
+        // Enough for the largest island the generator makes on this map
+        offsetRange = Math.min(width, height) / 8 + 1;
+        int side = offsetRange + 1;
+        offsetDistances = new float[side * side];
+        for (int dy = 0; dy < side; dy++) {
+            for (int dx = 0; dx < side; dx++) {
+                offsetDistances[dy * side + dx] = (float) Math.sqrt((float) dx * dx + (float) dy * dy);
+            }
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Distance from the map centre to its corners
+     */
+    public float getMaxDistance() {
+        return maxDistance;
+    }
+
+    /**
+     * Distance from the map centre (width / 2, height / 2) to a tile
+     */
+    public float getCentreDistance(int x, int y) {
+        if (centreDistances != null) {
+            int column = Math.abs(2 * x - width) >> 1;
+            int row = Math.abs(2 * y - height) >> 1;
+            return centreDistances[row * quadrantWidth + column];
+        }
+        float dx = x - centerX;
+        float dy = y - centerY;
+        return (float) Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * Normalized latitude of row y of a map height rows high: 0 at the
+     * equator (the middle row) and 1 at the poles
+     */
+    public static float latitude(int y, int height) {
+        float centerY = height / 2f;
+        return Math.abs(y - centerY) / centerY;
+    }
+
+    /**
+     * Distance between two tiles dx columns and dy rows apart
+     */
+    public float getOffsetDistance(int dx, int dy) {
+        dx = Math.abs(dx);
+        dy = Math.abs(dy);
+        if (dx <= offsetRange && dy <= offsetRange) {
+            return offsetDistances[dy * (offsetRange + 1) + dx];
+        }
+        return (float) Math.sqrt((float) dx * dx + (float) dy * dy);
+    }
+}
@@ -0,0 +1,90 @@
+package com.biobox;
+
+import java.util.Arrays;
+
+/**
+ * Tile storage holding one byte per tile in a flat, row-major array
+ */
+public class PackedTileStorage implements TileStorage {
+    private final byte[] tiles;
+    private final int width;
+    private final int height;
+
+    public PackedTileStorage(int width, int height, BiomeType fill) {
+        this.width = width;
+        this.height = height;
+        tiles = new byte[width * height];
+        Arrays.fill(tiles, (byte) fill.ordinal());
+    }
+
+    /**
+     * Wrap existing row-major tiles without copying them
+     */
+    PackedTileStorage(int width, int height, byte[] tiles) {
+        this.width = width;
+        this.height = height;
+        this.tiles = tiles;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public int get(int x, int y) {
+        return tiles[y * width + x];
+    }
+
+    @Override
+    public void set(int x, int y, int ordinal) {
+        tiles[y * width + x] = (byte) ordinal;
+    }
+
+    @Override
+    public void fillRect(int x, int y, int width, int height, int ordinal) {
+        if (x == 0 && width == this.width) {
+            // Whole rows are one contiguous run
+            Arrays.fill(tiles, y * width, (y + height) * width, (byte) ordinal);
+            return;
+        }
+        for (int row = y; row < y + height; row++) {
+            int start = row * this.width + x;
+            Arrays.fill(tiles, start, start + width, (byte) ordinal);
+        }
+    }
+
+    /**
+     * Copies the whole array; use chunked storage where snapshots are frequent
+     */
+    @Override
+    public TileStorage snapshot() {
+        return new PackedTileStorage(width, height, tiles.clone());
+    }
+
+    @Override
+    public int getRunEnd(int x, int y) {
+        int row = y * width;
+        byte ordinal = tiles[row + x];
+        int end = x + 1;
+        while (end < width && tiles[row + end] == ordinal) {
+            end++;
+        }
+        return end;
+    }
+
+    @Override
+    public void getRow(int y, int x, int length, byte[] dst, int offset) {
+        System.arraycopy(tiles, y * width + x, dst, offset, length);
+    }
+
+    @Override
+    public void setRow(int y, int x, int length, byte[] src, int offset) {
+        System.arraycopy(src, offset, tiles, y * width + x, length);
+    }
+}
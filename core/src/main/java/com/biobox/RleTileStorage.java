@@ -0,0 +1,324 @@
+package com.biobox;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Tile storage that run-length encodes each row. Maps dominated by long
+ * stretches of one biome (open ocean in archipelago and island worlds) take
+ * a few bytes per row instead of one per tile. Reads binary search the row's
+ * run ends; writes rebuild the row's run arrays, so this suits holding,
+ * saving and scanning finished maps better than tile-by-tile generation
+ * (generate into packed storage and {@link #encode} the result).
+ *
+ * The same encoding is used on disk by {@link #writeTo} and {@link #readFrom}.
+ * Because rows are immutable, snapshots share all of them and cost one
+ * pointer per row.
+ */
+public class RleTileStorage implements TileStorage {
+    private static final int MAGIC = 0x42494F52; // "BIOR"
+    private static final int VERSION = 1;
+
+    private final int width;
+    private final int height;
+
+    // Per row: exclusive end x of each run, ascending, the last one is width.
+    // Row arrays are never modified in place, only replaced, so rows with
+    // the same content may share them.
+    private final int[][] runEnds;
+    // Per row: biome ordinal of each run
+    private final byte[][] runValues;
+
+    public RleTileStorage(int width, int height, BiomeType fill) {
+        this(width, height);
+        int[] ends = { width };
+        byte[] values = { (byte) fill.ordinal() };
+        Arrays.fill(runEnds, ends);
+        Arrays.fill(runValues, values);
+    }
+
+    private RleTileStorage(int width, int height) {
+        this(width, height, new int[height][], new byte[height][]);
+    }
+
+    private RleTileStorage(int width, int height, int[][] runEnds, byte[][] runValues) {
+        this.width = width;
+        this.height = height;
+        this.runEnds = runEnds;
+        this.runValues = runValues;
+    }
+
+    /**
+     * Run-length encode the tiles of another storage
+     */
+    public static RleTileStorage encode(TileStorage source) {
+        RleTileStorage storage = new RleTileStorage(source.getWidth(), source.getHeight());
+        byte[] row = new byte[source.getWidth()];
+        for (int y = 0; y < source.getHeight(); y++) {
+            source.getRow(y, 0, row.length, row, 0);
+            storage.encodeRow(y, row);
+        }
+        return storage;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public int get(int x, int y) {
+        return runValues[y][findRun(runEnds[y], x)];
+    }
+
+    @Override
+    public void set(int x, int y, int ordinal) {
+        replaceSpan(y, x, x + 1, ordinal);
+    }
+
+    @Override
+    public void fillRect(int x, int y, int width, int height, int ordinal) {
+        for (int row = y; row < y + height; row++) {
+            replaceSpan(row, x, x + width, ordinal);
+        }
+    }
+
+    @Override
+    public void getRow(int y, int x, int length, byte[] dst, int offset) {
+        int[] ends = runEnds[y];
+        byte[] values = runValues[y];
+        int end = x + length;
+        for (int run = findRun(ends, x); x < end; run++) {
+            int runEnd = Math.min(ends[run], end);
+            Arrays.fill(dst, offset, offset + runEnd - x, values[run]);
+            offset += runEnd - x;
+            x = runEnd;
+        }
+    }
+
+    @Override
+    public void setRow(int y, int x, int length, byte[] src, int offset) {
+        byte[] row = new byte[width];
+        getRow(y, 0, width, row, 0);
+        System.arraycopy(src, offset, row, x, length);
+        encodeRow(y, row);
+    }
+
+    @Override
+    public TileStorage snapshot() {
+        RleTileStorage snapshot = new RleTileStorage(width, height);
+        System.arraycopy(runEnds, 0, snapshot.runEnds, 0, height);
+        System.arraycopy(runValues, 0, snapshot.runValues, 0, height);
+        return snapshot;
+    }
+
+    @Override
+    public int getRunEnd(int x, int y) {
+        return runEnds[y][findRun(runEnds[y], x)];
+    }
+
+    /**
+     * Total number of runs over all rows
+     */
+    public long getRunCount() {
+        long count = 0;
+        for (int[] ends : runEnds) {
+            count += ends.length;
+        }
+        return count;
+    }
+
+    /**
+     * Index of the run containing x: the first run whose end is past x
+     */
+    private static int findRun(int[] ends, int x) {
+        int low = 0;
+        int high = ends.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (ends[mid] <= x) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Set tiles fromX (inclusive) to toX (exclusive) of a row to one biome,
+     * keeping the untouched parts of the runs around it
+     */
+    private void replaceSpan(int y, int fromX, int toX, int ordinal) {
+        int[] ends = runEnds[y];
+        byte[] values = runValues[y];
+        int first = findRun(ends, fromX);
+        int last = findRun(ends, toX - 1);
+        if (first == last && values[first] == ordinal) return;
+
+        int[] newEnds = new int[ends.length + 2];
+        byte[] newValues = new byte[ends.length + 2];
+        int count = 0;
+
+        for (int run = 0; run < first; run++) {
+            count = appendRun(newEnds, newValues, count, ends[run], values[run]);
+        }
+        int firstStart = first == 0 ? 0 : ends[first - 1];
+        if (firstStart < fromX) {
+            count = appendRun(newEnds, newValues, count, fromX, values[first]);
+        }
+        count = appendRun(newEnds, newValues, count, toX, (byte) ordinal);
+        if (ends[last] > toX) {
+            count = appendRun(newEnds, newValues, count, ends[last], values[last]);
+        }
+        for (int run = last + 1; run < ends.length; run++) {
+            count = appendRun(newEnds, newValues, count, ends[run], values[run]);
+        }
+
+        runEnds[y] = Arrays.copyOf(newEnds, count);
+        runValues[y] = Arrays.copyOf(newValues, count);
+    }
+
+    /**
+     * Append a run, merging it into the previous one if it has the same biome
+     */
+    private static int appendRun(int[] ends, byte[] values, int count, int end, byte value) {
+        if (count > 0 && values[count - 1] == value) {
+            ends[count - 1] = end;
+            return count;
+        }
+        ends[count] = end;
+        values[count] = value;
+        return count + 1;
+    }
+
+    private void encodeRow(int y, byte[] row) {
+        int runs = 1;
+        for (int x = 1; x < width; x++) {
+            if (row[x] != row[x - 1]) runs++;
+        }
+
+        int[] ends = new int[runs];
+        byte[] values = new byte[runs];
+        int run = 0;
+        for (int x = 1; x <= width; x++) {
+            if (x == width || row[x] != row[x - 1]) {
+                ends[run] = x;
+                values[run] = row[x - 1];
+                run++;
+            }
+        }
+        runEnds[y] = ends;
+        runValues[y] = values;
+    }
+
+    /**
+     * Write the map in its run-length encoded form
+     */
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(width);
+        out.writeInt(height);
+
+        for (int y = 0; y < height; y++) {
+            int[] ends = runEnds[y];
+            byte[] values = runValues[y];
+            writeVarInt(out, ends.length);
+            int start = 0;
+            for (int run = 0; run < ends.length; run++) {
+                writeVarInt(out, ends[run] - start);
+                out.writeByte(values[run]);
+                start = ends[run];
+            }
+        }
+    }
+
+    /**
+     * Read a map written by {@link #writeTo}. A truncated or corrupt stream
+     * throws an IOException: the size, every run and every biome are
+     * checked as they are read, so a bad file never yields a storage that
+     * breaks later.
+     */
+    public static RleTileStorage readFrom(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a run-length encoded world");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported run-length encoded world version " + version);
+        }
+        int width = in.readInt();
+        int height = in.readInt();
+        if (width <= 0 || height <= 0) {
+            throw new IOException("Invalid run-length encoded world size " + width + "x" + height);
+        }
+        int biomeCount = BiomeType.values().length;
+
+        // Grown as rows arrive rather than sized from the header up front,
+        // so a corrupt height can't ask for more memory than the stream holds
+        int[][] rowEnds = new int[Math.min(height, 1024)][];
+        byte[][] rowValues = new byte[rowEnds.length][];
+        for (int y = 0; y < height; y++) {
+            int runs = readVarInt(in);
+            if (runs <= 0 || runs > width) {
+                throw new IOException("Corrupt run-length encoded row " + y + ": " + runs + " runs");
+            }
+            int[] ends = new int[runs];
+            byte[] values = new byte[runs];
+            int end = 0;
+            for (int run = 0; run < runs; run++) {
+                int length = readVarInt(in);
+                // Runs are never empty and never reach past the row
+                if (length <= 0 || length > width - end) {
+                    throw new IOException("Corrupt run-length encoded row " + y + ": run of " + length
+                        + " from " + end);
+                }
+                end += length;
+                ends[run] = end;
+                values[run] = in.readByte();
+                if (values[run] < 0 || values[run] >= biomeCount) {
+                    throw new IOException("Corrupt run-length encoded row " + y + ": biome " + values[run]);
+                }
+            }
+            if (end != width) {
+                throw new IOException("Corrupt run-length encoded row " + y + ": ends at " + end);
+            }
+            if (y == rowEnds.length) {
+                int capacity = (int) Math.min((long) rowEnds.length * 2, height);
+                rowEnds = Arrays.copyOf(rowEnds, capacity);
+                rowValues = Arrays.copyOf(rowValues, capacity);
+            }
+            rowEnds[y] = ends;
+            rowValues[y] = values;
+        }
+
+        // Growth stops at height, so the arrays now hold exactly the rows
+        return new RleTileStorage(width, height, rowEnds, rowValues);
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed length in run-length encoded world");
+    }
+}
@@ -1,38 +1,326 @@
 package com.biobox;
 
 /**
- * A simple grid structure using square tiles (replacing HexGrid)
+ * A simple grid structure using square tiles (replacing HexGrid).
+ * Tiles are kept as biome ordinals in a {@link TileStorage}.
  */
 public class SquareGrid {
-    private BiomeType[][] tiles;
+    // Maps with more tiles than this default to chunked storage
+    public static final long CHUNKED_STORAGE_THRESHOLD = 4096L * 4096L;
+
+    private TileStorage tiles;
     private final int width;
     private final int height;
 
+    // Consumers notified of every tile change
+    private DirtyRegionTracker[] dirtyTrackers = new DirtyRegionTracker[0];
+    // Biome counts, built on first request and then kept up to date
+    private BiomeHistogram histogram;
+    // Undo history, if an EditJournal was attached
+    private EditJournal journal;
+
     public SquareGrid(int width, int height) {
-        this.width = width;
-        this.height = height;
-        tiles = new BiomeType[width][height];
-        
         // Initialize with default biome
-        for (int x = 0; x < width; x++) {
-            for (int y = 0; y < height; y++) {
-                tiles[x][y] = BiomeType.GRASS;
-            }
+        this(createStorage(width, height, BiomeType.GRASS));
+    }
+
+    public SquareGrid(TileStorage tiles) {
+        this.tiles = tiles;
+        this.width = tiles.getWidth();
+        this.height = tiles.getHeight();
+    }
+
+    /**
+     * Create the default storage for a map of the given size: packed for
+     * normal maps, chunked (allocated on first write) for very large ones
+     */
+    public static TileStorage createStorage(int width, int height, BiomeType fill) {
+        if ((long) width * height > CHUNKED_STORAGE_THRESHOLD) {
+            return new ChunkedTileStorage(width, height, fill);
         }
+        return new PackedTileStorage(width, height, fill);
     }
 
     public BiomeType getTile(int x, int y) {
         if (x >= 0 && x < width && y >= 0 && y < height) {
-            return tiles[x][y];
+            return BiomeType.fromOrdinal(tiles.get(x, y));
         }
         // Return null for out-of-bounds
         return null;
     }
 
     public void setTile(int x, int y, BiomeType type) {
+        setOrdinal(x, y, type.ordinal());
+    }
+
+    /**
+     * Get the biome ordinal of a tile, or -1 for out-of-bounds
+     */
+    public int getOrdinal(int x, int y) {
+        if (x >= 0 && x < width && y >= 0 && y < height) {
+            return tiles.get(x, y);
+        }
+        return -1;
+    }
+
+    /**
+     * Get the x just past the run of identical tiles starting at (x, y), so
+     * row scans can skip whole uniform spans. For out-of-bounds tiles this
+     * is simply x + 1.
+     */
+    public int getRunEnd(int x, int y) {
+        if (x >= 0 && x < width && y >= 0 && y < height) {
+            return tiles.getRunEnd(x, y);
+        }
+        return x + 1;
+    }
+
+    /**
+     * Set a tile by biome ordinal (see {@link BiomeType#ordinal()})
+     */
+    public void setOrdinal(int x, int y, int ordinal) {
         if (x >= 0 && x < width && y >= 0 && y < height) {
-            tiles[x][y] = type;
+            // Writing the same biome again is not a change
+            int previous = tiles.get(x, y);
+            if (previous == ordinal) return;
+
+            if (journal != null) {
+                journal.record(x, y, previous);
+            }
+            tiles.set(x, y, ordinal);
+            if (histogram != null) {
+                histogram.update(x, y, previous, ordinal);
+            }
+            for (DirtyRegionTracker tracker : dirtyTrackers) {
+                tracker.mark(x, y);
+            }
+        }
+    }
+
+    /**
+     * Set every tile of the grid to one biome
+     */
+    public void fill(BiomeType type) {
+        fillRect(0, 0, width, height, type);
+    }
+
+    /**
+     * Set every tile of a rectangle to one biome. Parts outside the grid are
+     * ignored.
+     */
+    public void fillRect(int x, int y, int rectWidth, int rectHeight, BiomeType type) {
+        int minX = Math.max(x, 0);
+        int minY = Math.max(y, 0);
+        int maxX = Math.min(x + rectWidth, width) - 1;
+        int maxY = Math.min(y + rectHeight, height) - 1;
+        if (minX > maxX || minY > maxY) return;
+
+        int spanWidth = maxX - minX + 1;
+        boolean recording = journal != null && journal.isRecording();
+        if (histogram != null || recording) {
+            // Take the overwritten tiles out of the counts first
+            byte[] previous = new byte[spanWidth];
+            for (int row = minY; row <= maxY; row++) {
+                tiles.getRow(row, minX, spanWidth, previous, 0);
+                if (recording) {
+                    journal.recordRow(row, minX, previous, 0, spanWidth);
+                }
+                if (histogram != null) {
+                    histogram.removeRow(row, minX, previous, 0, spanWidth);
+                    histogram.addSpan(row, minX, spanWidth, type.ordinal());
+                }
+            }
+        }
+
+        tiles.fillRect(minX, minY, spanWidth, maxY - minY + 1, type.ordinal());
+        markDirty(minX, minY, maxX, maxY);
+    }
+
+    /**
+     * Set the tiles of one row from fromX to toX (both inclusive) to one biome.
+     * Parts outside the grid are ignored.
+     */
+    public void fillRowSpan(int y, int fromX, int toX, BiomeType type) {
+        fillRect(fromX, y, toX - fromX + 1, 1, type);
+    }
+
+    /**
+     * Set every tile whose centre lies within radius of the centre tile
+     */
+    public void fillCircle(int centerX, int centerY, float radius, BiomeType type) {
+        if (radius < 0) return;
+
+        double radiusSquared = (double) radius * radius;
+        int reach = (int) radius;
+        int minY = Math.max(centerY - reach, 0);
+        int maxY = Math.min(centerY + reach, height - 1);
+
+        for (int y = minY; y <= maxY; y++) {
+            int dy = y - centerY;
+            // Widest dx with dx * dx + dy * dy <= radius * radius
+            int halfWidth = (int) Math.sqrt(radiusSquared - dy * dy);
+            fillRowSpan(y, centerX - halfWidth, centerX + halfWidth, type);
+        }
+    }
+
+    /**
+     * Copy a rectangle of tiles. The copy is clipped to the grid, so it may
+     * be smaller than requested; null if nothing of it lies inside.
+     */
+    public GridRegion copyRegion(int x, int y, int regionWidth, int regionHeight) {
+        int minX = Math.max(x, 0);
+        int minY = Math.max(y, 0);
+        int maxX = Math.min(x + regionWidth, width) - 1;
+        int maxY = Math.min(y + regionHeight, height) - 1;
+        if (minX > maxX || minY > maxY) return null;
+
+        GridRegion region = new GridRegion(minX, minY, maxX - minX + 1, maxY - minY + 1);
+        byte[] regionTiles = region.getTiles();
+        for (int row = 0; row < region.getHeight(); row++) {
+            tiles.getRow(minY + row, minX, region.getWidth(), regionTiles, row * region.getWidth());
         }
+        return region;
+    }
+
+    /**
+     * Paste a copied region with its top-left corner at (x, y). Parts that
+     * fall outside the grid are ignored.
+     */
+    public void pasteRegion(GridRegion region, int x, int y) {
+        int minX = Math.max(x, 0);
+        int minY = Math.max(y, 0);
+        int maxX = Math.min(x + region.getWidth(), width) - 1;
+        int maxY = Math.min(y + region.getHeight(), height) - 1;
+        if (minX > maxX || minY > maxY) return;
+
+        byte[] regionTiles = region.getTiles();
+        int offsetX = minX - x;
+        int spanWidth = maxX - minX + 1;
+        boolean recording = journal != null && journal.isRecording();
+        byte[] previous = histogram != null || recording ? new byte[spanWidth] : null;
+        for (int row = minY; row <= maxY; row++) {
+            int offset = (row - y) * region.getWidth() + offsetX;
+            if (previous != null) {
+                tiles.getRow(row, minX, spanWidth, previous, 0);
+            }
+            if (recording) {
+                journal.recordRow(row, minX, previous, 0, spanWidth);
+            }
+            if (histogram != null) {
+                histogram.removeRow(row, minX, previous, 0, spanWidth);
+                histogram.addRow(row, minX, regionTiles, offset, spanWidth);
+            }
+            tiles.setRow(row, minX, spanWidth, regionTiles, offset);
+        }
+        markDirty(minX, minY, maxX, maxY);
+    }
+
+    private void markDirty(int minX, int minY, int maxX, int maxY) {
+        for (DirtyRegionTracker tracker : dirtyTrackers) {
+            tracker.mark(minX, minY, maxX, maxY);
+        }
+    }
+
+    /**
+     * Create a tracker that records changed regions from now on. It starts
+     * with the whole grid dirty, since its consumer has seen nothing yet.
+     */
+    public DirtyRegionTracker createDirtyTracker() {
+        DirtyRegionTracker tracker = new DirtyRegionTracker(width, height);
+        tracker.markAll();
+
+        DirtyRegionTracker[] trackers = new DirtyRegionTracker[dirtyTrackers.length + 1];
+        System.arraycopy(dirtyTrackers, 0, trackers, 0, dirtyTrackers.length);
+        trackers[dirtyTrackers.length] = tracker;
+        dirtyTrackers = trackers;
+        return tracker;
+    }
+
+    /**
+     * Stop recording changes for a tracker
+     */
+    public void removeDirtyTracker(DirtyRegionTracker tracker) {
+        for (int i = 0; i < dirtyTrackers.length; i++) {
+            if (dirtyTrackers[i] == tracker) {
+                DirtyRegionTracker[] trackers = new DirtyRegionTracker[dirtyTrackers.length - 1];
+                System.arraycopy(dirtyTrackers, 0, trackers, 0, i);
+                System.arraycopy(dirtyTrackers, i + 1, trackers, i, trackers.length - i);
+                dirtyTrackers = trackers;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Take a consistent copy of the grid's tiles, e.g. to hand to a
+     * background save or export while editing continues. With chunked
+     * storage this shares chunks copy-on-write and costs O(chunks). The
+     * snapshot has no dirty trackers, histogram or journal of its own.
+     */
+    public SquareGrid snapshot() {
+        return new SquareGrid(tiles.snapshot());
+    }
+
+    /**
+     * Exchange tiles with another grid of the same size, e.g. to publish a
+     * world generated into a back buffer. Histograms are recounted and
+     * dirty trackers of both grids see everything as changed; journals are
+     * left alone, so clear them if their edits no longer apply.
+     */
+    public void swapStorage(SquareGrid other) {
+        if (other.width != width || other.height != height) {
+            throw new IllegalArgumentException("Grid sizes differ: " + width + "x" + height +
+                " and " + other.width + "x" + other.height);
+        }
+        TileStorage swapped = tiles;
+        tiles = other.tiles;
+        other.tiles = swapped;
+
+        storageReplaced();
+        other.storageReplaced();
+    }
+
+    private void storageReplaced() {
+        if (histogram != null) {
+            histogram.rebuild();
+        }
+        for (DirtyRegionTracker tracker : dirtyTrackers) {
+            tracker.markAll();
+        }
+    }
+
+    /**
+     * Get the per-biome tile counts. The first call scans the grid; after
+     * that the counts are maintained on every write.
+     */
+    public BiomeHistogram getHistogram() {
+        if (histogram == null) {
+            histogram = new BiomeHistogram(this);
+        }
+        return histogram;
+    }
+
+    /**
+     * Attach the journal that records this grid's edits (done by the
+     * EditJournal constructor)
+     */
+    void setJournal(EditJournal journal) {
+        this.journal = journal;
+    }
+
+    public EditJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Release storage for regions that ended up a single biome
+     */
+    public void compact() {
+        tiles.compact();
+    }
+
+    public TileStorage getStorage() {
+        return tiles;
     }
 
     public int getWidth() {
@@ -42,8 +330,8 @@ public class SquareGrid {
     public int getHeight() {
         return height;
     }
-    
+
     public boolean isInBounds(int x, int y) {
         return x >= 0 && x < width && y >= 0 && y < height;
     }
-}
\ No newline at end of file
+}
@@ -29,6 +29,17 @@ public class SquareTileRenderer {
     private Texture texture;
     private boolean textureNeedsUpdate = true;
     
+    // Regions of the grid changed since the texture was last updated
+    private final DirtyRegionTracker dirtyRegions;
+    // Scratch pixmap for uploading one changed region to the texture
+    private Pixmap regionPixmap;
+    
+    // Coarse preview drawn in place of the grid, one texel per preview
+    // tile, and the tiles it was made from
+    private Texture previewTexture;
+    private SquareGrid previewTiles;
+    private int previewStep;
+    
     // Rendering options
     private boolean showGrid = true;
     private Color borderColor = new Color(0.2f, 0.2f, 0.2f, 0.8f);
@@ -49,6 +60,9 @@ public class SquareTileRenderer {
         pixmap = new Pixmap(worldWidth, worldHeight, Pixmap.Format.RGBA8888);
         texture = new Texture(pixmap);
         
+        // Track tile changes so edits only repaint what they touched
+        dirtyRegions = grid.createDirtyTracker();
+        
         // Initialize color variations
         initBiomeColors();
     }
@@ -83,12 +97,23 @@ public class SquareTileRenderer {
         if (textureNeedsUpdate) {
             updateTexture();
             textureNeedsUpdate = false;
+        } else if (dirtyRegions.isDirty()) {
+            updateDirtyRegions();
         }
         
         // Draw background texture
         batch.setProjectionMatrix(camera.combined);
         batch.begin();
-        batch.draw(texture, 0, 0);
+        if (previewTexture != null) {
+            // Only the part of the last preview row and column that lies
+            // on the grid
+            float u2 = grid.getWidth() / (float) (previewTiles.getWidth() * previewStep);
+            float v = grid.getHeight() / (float) (previewTiles.getHeight() * previewStep);
+            batch.draw(previewTexture, 0, 0, grid.getWidth() * TILE_SIZE, grid.getHeight() * TILE_SIZE,
+                0, v, u2, 0);
+        } else {
+            batch.draw(texture, 0, 0);
+        }
         batch.end();
         
         // Draw grid lines if enabled
@@ -105,12 +130,14 @@ public class SquareTileRenderer {
         pixmap.setColor(0, 0, 0, 1);
         pixmap.fill();
         
-        // Draw each tile
-        for (int x = 0; x < grid.getWidth(); x++) {
-            for (int y = 0; y < grid.getHeight(); y++) {
-                BiomeType biome = grid.getTile(x, y);
-                if (biome != null) {
-                    renderSquareTile(x, y, biome);
+        // Draw each tile, walking the grid row by row a run of one biome at a time
+        for (int y = 0; y < grid.getHeight(); y++) {
+            int x = 0;
+            while (x < grid.getWidth()) {
+                int runEnd = grid.getRunEnd(x, y);
+                int biomeOrdinal = grid.getOrdinal(x, y);
+                for (; x < runEnd; x++) {
+                    renderSquareTile(x, y, biomeOrdinal);
                 }
             }
         }
@@ -118,14 +145,54 @@ public class SquareTileRenderer {
         // Update the texture
         if (texture != null) texture.dispose();
         texture = new Texture(pixmap);
+        
+        // Everything was just repainted
+        dirtyRegions.clear();
+    }
+    
+    /**
+     * Repaint only the regions of the grid that changed and upload them
+     * into the existing texture
+     */
+    private void updateDirtyRegions() {
+        dirtyRegions.drain(this::updateRegion);
+    }
+    
+    /**
+     * Repaint one rectangle of tiles and upload it to the texture
+     */
+    private void updateRegion(int regionX, int regionY, int regionWidth, int regionHeight) {
+        for (int y = regionY; y < regionY + regionHeight; y++) {
+            for (int x = regionX; x < regionX + regionWidth; x++) {
+                renderSquareTile(x, y, grid.getOrdinal(x, y));
+            }
+        }
+        
+        int pixelWidth = regionWidth * TILE_SIZE;
+        int pixelHeight = regionHeight * TILE_SIZE;
+        
+        // Full-size regions reuse one scratch pixmap; edge regions are smaller
+        Pixmap upload = regionPixmap;
+        if (upload == null || upload.getWidth() != pixelWidth || upload.getHeight() != pixelHeight) {
+            upload = new Pixmap(pixelWidth, pixelHeight, Pixmap.Format.RGBA8888);
+            upload.setBlending(Pixmap.Blending.None);
+            if (regionWidth == DirtyRegionTracker.REGION_SIZE && regionHeight == DirtyRegionTracker.REGION_SIZE) {
+                regionPixmap = upload;
+            }
+        }
+        
+        upload.drawPixmap(pixmap, 0, 0, regionX * TILE_SIZE, regionY * TILE_SIZE, pixelWidth, pixelHeight);
+        texture.draw(upload, regionX * TILE_SIZE, regionY * TILE_SIZE);
+        
+        if (upload != regionPixmap) upload.dispose();
     }
     
     /**
      * Render a single square tile with pixel texture
      */
-    private void renderSquareTile(int x, int y, BiomeType biome) {
+    private void renderSquareTile(int x, int y, int biomeOrdinal) {
         // Get the biome's colors
-        Color[] colors = biomePixelColors[biome.ordinal()];
+        Color[] colors = biomePixelColors[biomeOrdinal];
         
         // Calculate tile position in pixels
         int tileX = x * TILE_SIZE;
@@ -213,6 +280,39 @@ public class SquareTileRenderer {
         shapeRenderer.end();
     }
     
+    /**
+     * Draw a coarse preview in place of the grid (see
+     * {@link DoubleBufferedGrid#getPreview()}), each preview tile a step x
+     * step block in its biome's base colour; null goes back to the grid.
+     * Call every frame: the texture is only rebuilt when the preview changes.
+     */
+    public void setPreview(SquareGrid tiles, int step) {
+        if (tiles == previewTiles) return;
+        
+        if (previewTexture != null) {
+            previewTexture.dispose();
+            previewTexture = null;
+        }
+        previewTiles = tiles;
+        previewStep = step;
+        if (tiles == null) return;
+        
+        BiomeType[] biomes = BiomeType.values();
+        Pixmap previewPixmap = new Pixmap(tiles.getWidth(), tiles.getHeight(), Pixmap.Format.RGBA8888);
+        for (int y = 0; y < tiles.getHeight(); y++) {
+            int x = 0;
+            while (x < tiles.getWidth()) {
+                int runEnd = tiles.getRunEnd(x, y);
+                int color = Color.rgba8888(biomes[tiles.getOrdinal(x, y)].getBaseColor());
+                for (; x < runEnd; x++) {
+                    previewPixmap.drawPixel(x, y, color);
+                }
+            }
+        }
+        previewTexture = new Texture(previewPixmap);
+        previewPixmap.dispose();
+    }
+    
     /**
      * Toggle grid display
      */
@@ -229,7 +329,8 @@ public class SquareTileRenderer {
     }
     
     /**
-     * Mark the texture as needing update
+     * Mark the whole texture as needing update. Tile changes made through
+     * the grid are picked up on their own and don't need this.
      */
     public void markDirty() {
         textureNeedsUpdate = true;
@@ -240,6 +341,9 @@ public class SquareTileRenderer {
      */
     public void dispose() {
         if (pixmap != null) pixmap.dispose();
+        if (regionPixmap != null) regionPixmap.dispose();
         if (texture != null) texture.dispose();
+        if (previewTexture != null) previewTexture.dispose();
+        grid.removeDirtyTracker(dirtyRegions);
     }
 }
\ No newline at end of file
@@ -0,0 +1,179 @@
+package com.biobox;
+
+import com.badlogic.gdx.graphics.Color;
+import com.badlogic.gdx.graphics.OrthographicCamera;
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.g2d.SpriteBatch;
+import com.badlogic.gdx.math.MathUtils;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Renderer for a {@link StreamingWorld}. Each visible chunk gets a small
+ * texture of its own (a few texels per tile, without tile borders), which is
+ * repainted when the chunk's tiles change and released as soon as the chunk
+ * leaves the view, so texture memory follows the screen, not the world.
+ *
+ * Tile rows grow downwards, as in {@link SquareTileRenderer}: tile (x, y)
+ * covers world x from x * TILE_SIZE and world y down from -y * TILE_SIZE.
+ */
+public class StreamingWorldRenderer {
+    // Texels per tile edge; the full tile size would cost 4 MB per chunk
+    public static final int TEXELS_PER_TILE = 4;
+    private static final int TEXTURE_SIZE = StreamingWorld.CHUNK_SIZE * TEXELS_PER_TILE;
+    private static final int CHUNK_PIXELS = StreamingWorld.CHUNK_SIZE * SquareTileRenderer.TILE_SIZE;
+
+    private final StreamingWorld world;
+    private final SpriteBatch batch;
+
+    // Textures of the chunks drawn last frame
+    private final Map<StreamingWorld.Chunk, ChunkTexture> textures = new HashMap<>();
+    // Scratch pixmap every chunk is painted into before upload
+    private final Pixmap pixmap = new Pixmap(TEXTURE_SIZE, TEXTURE_SIZE, Pixmap.Format.RGBA8888);
+
+    // Color variations per biome, packed RGBA8888
+    private final int[][] biomeTexelColors;
+    private int frame;
+
+    /**
+     * A chunk's texture and the tracker telling when to repaint it
+     */
+    private static class ChunkTexture {
+        final Texture texture;
+        final DirtyRegionTracker changes;
+        int lastDrawn;
+
+        ChunkTexture(Texture texture, DirtyRegionTracker changes) {
+            this.texture = texture;
+            this.changes = changes;
+        }
+    }
+
+    public StreamingWorldRenderer(StreamingWorld world, SpriteBatch batch) {
+        this.world = world;
+        this.batch = batch;
+
+        BiomeType[] biomeTypes = BiomeType.values();
+        biomeTexelColors = new int[biomeTypes.length][16];
+        for (BiomeType biome : biomeTypes) {
+            Color baseColor = biome.getBaseColor();
+            int[] colors = biomeTexelColors[biome.ordinal()];
+            for (int i = 0; i < colors.length; i++) {
+                colors[i] = Color.rgba8888(
+                    MathUtils.clamp(baseColor.r + MathUtils.random(-0.07f, 0.07f), 0, 1),
+                    MathUtils.clamp(baseColor.g + MathUtils.random(-0.07f, 0.07f), 0, 1),
+                    MathUtils.clamp(baseColor.b + MathUtils.random(-0.07f, 0.07f), 0, 1),
+                    1f);
+            }
+        }
+    }
+
+    /**
+     * Draw the resident chunks the camera sees
+     */
+    public void render(OrthographicCamera camera) {
+        frame++;
+        int minChunkX = chunkAt(camera.position.x - camera.viewportWidth * camera.zoom / 2);
+        int maxChunkX = chunkAt(camera.position.x + camera.viewportWidth * camera.zoom / 2);
+        // World y points up while tile rows grow down
+        int minChunkY = chunkAt(-(camera.position.y + camera.viewportHeight * camera.zoom / 2));
+        int maxChunkY = chunkAt(-(camera.position.y - camera.viewportHeight * camera.zoom / 2));
+
+        batch.setProjectionMatrix(camera.combined);
+        batch.begin();
+        for (int chunkY = minChunkY; chunkY <= maxChunkY; chunkY++) {
+            for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+                StreamingWorld.Chunk chunk = world.getChunk(chunkX, chunkY);
+                if (chunk == null) continue;
+
+                ChunkTexture texture = getTexture(chunk);
+                texture.lastDrawn = frame;
+                batch.draw(texture.texture,
+                    chunkX * CHUNK_PIXELS, -(chunkY + 1) * CHUNK_PIXELS,
+                    CHUNK_PIXELS, CHUNK_PIXELS);
+            }
+        }
+        batch.end();
+
+        // Release textures of chunks that left the view (or were evicted)
+        Iterator<Map.Entry<StreamingWorld.Chunk, ChunkTexture>> entries = textures.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<StreamingWorld.Chunk, ChunkTexture> entry = entries.next();
+            if (entry.getValue().lastDrawn != frame) {
+                release(entry.getKey(), entry.getValue());
+                entries.remove();
+            }
+        }
+    }
+
+    /**
+     * Tile coordinates of the tile under a world position
+     */
+    public static int tileX(float worldX) {
+        return (int) Math.floor(worldX / SquareTileRenderer.TILE_SIZE);
+    }
+
+    public static int tileY(float worldY) {
+        return (int) Math.floor(-worldY / SquareTileRenderer.TILE_SIZE);
+    }
+
+    /**
+     * Release all textures
+     */
+    public void dispose() {
+        for (Map.Entry<StreamingWorld.Chunk, ChunkTexture> entry : textures.entrySet()) {
+            release(entry.getKey(), entry.getValue());
+        }
+        textures.clear();
+        pixmap.dispose();
+    }
+
+    private ChunkTexture getTexture(StreamingWorld.Chunk chunk) {
+        ChunkTexture texture = textures.get(chunk);
+        if (texture == null) {
+            paint(chunk.getTiles());
+            DirtyRegionTracker changes = chunk.getTiles().createDirtyTracker();
+            changes.clear();
+            texture = new ChunkTexture(new Texture(pixmap), changes);
+            textures.put(chunk, texture);
+        } else if (texture.changes.isDirty()) {
+            // Chunks are small; repainting one whole is simpler than by region
+            paint(chunk.getTiles());
+            texture.texture.draw(pixmap, 0, 0);
+            texture.changes.clear();
+        }
+        return texture;
+    }
+
+    private void paint(SquareGrid tiles) {
+        for (int y = 0; y < tiles.getHeight(); y++) {
+            int x = 0;
+            while (x < tiles.getWidth()) {
+                int runEnd = tiles.getRunEnd(x, y);
+                int[] colors = biomeTexelColors[tiles.getOrdinal(x, y)];
+                for (; x < runEnd; x++) {
+                    for (int ty = 0; ty < TEXELS_PER_TILE; ty++) {
+                        for (int tx = 0; tx < TEXELS_PER_TILE; tx++) {
+                            int texelX = x * TEXELS_PER_TILE + tx;
+                            int texelY = y * TEXELS_PER_TILE + ty;
+                            // Deterministic variation based on position
+                            pixmap.drawPixel(texelX, texelY, colors[(texelX * 31 + texelY * 17) & 15]);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void release(StreamingWorld.Chunk chunk, ChunkTexture texture) {
+        texture.texture.dispose();
+        chunk.getTiles().removeDirtyTracker(texture.changes);
+    }
+
+    private static int chunkAt(float worldCoordinate) {
+        return (int) Math.floor(worldCoordinate / CHUNK_PIXELS);
+    }
+}
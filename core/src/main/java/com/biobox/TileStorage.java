@@ -0,0 +1,77 @@
+package com.biobox;
+
+/**
+ * Backing store for the biome ordinals of a {@link SquareGrid}.
+ * Coordinates passed in are always in bounds; the grid does the checking.
+ */
+public interface TileStorage {
+
+    int getWidth();
+
+    int getHeight();
+
+    /**
+     * Get the biome ordinal at a tile
+     */
+    int get(int x, int y);
+
+    /**
+     * Set the biome ordinal at a tile
+     */
+    void set(int x, int y, int ordinal);
+
+    /**
+     * Set every tile of an (in-bounds) rectangle to one biome ordinal
+     */
+    default void fillRect(int x, int y, int width, int height, int ordinal) {
+        for (int ty = y; ty < y + height; ty++) {
+            for (int tx = x; tx < x + width; tx++) {
+                set(tx, ty, ordinal);
+            }
+        }
+    }
+
+    /**
+     * Copy a run of a row's ordinals into an array
+     */
+    default void getRow(int y, int x, int length, byte[] dst, int offset) {
+        for (int i = 0; i < length; i++) {
+            dst[offset + i] = (byte) get(x + i, y);
+        }
+    }
+
+    /**
+     * Overwrite a run of a row with ordinals from an array
+     */
+    default void setRow(int y, int x, int length, byte[] src, int offset) {
+        for (int i = 0; i < length; i++) {
+            set(x + i, y, src[offset + i]);
+        }
+    }
+
+    /**
+     * Get the x just past the run of identical tiles that starts at (x, y),
+     * letting row scans skip uniform spans
+     */
+    default int getRunEnd(int x, int y) {
+        int ordinal = get(x, y);
+        int end = x + 1;
+        while (end < getWidth() && get(end, y) == ordinal) {
+            end++;
+        }
+        return end;
+    }
+
+    /**
+     * Create an independent copy holding the current tiles. Later writes to
+     * either one are not seen by the other.
+     */
+    TileStorage snapshot();
+
+    /**
+     * Release memory held for regions that no longer need it.
+     * Storages without such regions do nothing.
+     */
+    default void compact() {
+    }
+}
@@ -7,10 +7,17 @@ import com.badlogic.gdx.graphics.g2d.BitmapFont;
 import com.badlogic.gdx.graphics.g2d.SpriteBatch;
 import com.badlogic.gdx.graphics.glutils.ShapeRenderer;
 
+import java.io.File;
+
 /**
  * Main class for the RPG World Generator application.
  */
 public class WorldEditorMain extends ApplicationAdapter {
+    // Memory for recently generated worlds; older ones are spilled to disk
+    private static final long WORLD_CACHE_BUDGET = 64L * 1024 * 1024;
+    // Disk for the spilled ones; the least recently used are deleted past it
+    private static final long WORLD_SPILL_BUDGET = 256L * 1024 * 1024;
+    
     // Core components
     private SpriteBatch batch;
     private ShapeRenderer shapeRenderer;
@@ -47,10 +54,13 @@ public class WorldEditorMain extends ApplicationAdapter {
             tileRenderer,
             worldGenerator
         );
+        editorUI.setWorldCache(new WorldCache(WORLD_CACHE_BUDGET,
+            new File(Gdx.files.getExternalStoragePath(), ".biobox/world-cache"), WORLD_SPILL_BUDGET));
+        editorUI.setChunkSaveDirectory(new File(Gdx.files.getExternalStoragePath(), ".biobox/chunks"));
         
-        // Generate initial world
-        worldGenerator.generateWorld(grid, BiomeGenerator.WorldType.CLASSIC);
-        tileRenderer.markDirty();
+        // Generate initial world, in the background like any other, so the
+        // editor knows which world it shows
+        editorUI.generateWorld(BiomeGenerator.WorldType.CLASSIC);
         
         // Set input processor to handle user interactions
         Gdx.input.setInputProcessor(editorUI.getInputProcessor());
@@ -20,6 +20,8 @@ import com.badlogic.gdx.utils.Array;
 import com.badlogic.gdx.utils.viewport.FitViewport;
 import com.badlogic.gdx.utils.viewport.Viewport;
 
+import java.io.File;
+
 /**
  * Main UI manager for the RPG World Generator.
  * Handles all UI components, user interactions, and input processing.
@@ -32,6 +34,14 @@ public class WorldEditorUI {
     private BitmapFont font;
     private SquareTileRenderer tileRenderer;
     private BiomeGenerator worldGenerator;
+    private EditJournal editJournal;
+    // Worlds are generated into a back buffer off the render thread
+    private DoubleBufferedGrid worldBuffers;
+    // Endless mode: chunks streamed around the camera instead of the grid
+    private StreamingWorld streamingWorld;
+    private StreamingWorldRenderer streamingRenderer;
+    // Where edited endless chunks are kept, or null to drop the edits
+    private File chunkSaveDirectory;
     
     // Camera and viewport for the map display
     private OrthographicCamera mapCamera;
@@ -75,6 +85,14 @@ public class WorldEditorUI {
     private Array<String> worldTypeLabels = new Array<>();
     private BiomeGenerator.WorldType selectedWorldType = BiomeGenerator.WorldType.CLASSIC;
     private Rectangle generateButton;
+    private Rectangle endlessButton;
+    
+    // Sea level slider; the world is reclassified once the generator is free
+    private static final float SEA_LEVEL_RANGE = 0.2f;
+    private Rectangle seaLevelSlider;
+    private float seaLevel;
+    private float appliedSeaLevel;
+    private boolean draggingSeaLevel;
     
     // Editor tab components
     private Array<Rectangle> tabButtons = new Array<>();
@@ -99,6 +117,13 @@ public class WorldEditorUI {
     private static final int BIOME_BUTTON_SIZE = 40;
     private static final int BUTTON_SPACING = 8;
     
+    // Memory the undo history may use
+    private static final long UNDO_MEMORY_BUDGET = 16L * 1024 * 1024;
+    
+    // Endless chunks kept in memory (64x64 tiles each) and threads generating them
+    private static final int MAX_RESIDENT_CHUNKS = 256;
+    private static final int CHUNK_THREADS = 2;
+    
     /**
      * Constructor initializes the UI components and input processors
      */
@@ -111,6 +136,8 @@ public class WorldEditorUI {
         this.font = font;
         this.tileRenderer = tileRenderer;
         this.worldGenerator = worldGenerator;
+        this.editJournal = new EditJournal(grid, UNDO_MEMORY_BUDGET);
+        this.worldBuffers = new DoubleBufferedGrid(grid);
         this.glyphLayout = new GlyphLayout();
         
         // Setup the map camera and viewport - ALTERADO para usar o tamanho do grid
@@ -311,6 +338,22 @@ public class WorldEditorUI {
             180,
             buttonHeight
         );
+        
+        // Endless world button, below the generate button
+        endlessButton = new Rectangle(
+            generateButton.x,
+            generateButton.y - buttonHeight - BUTTON_SPACING,
+            180,
+            buttonHeight
+        );
+        
+        // Sea level slider, left of the generate button
+        seaLevelSlider = new Rectangle(
+            generateButton.x - 200,
+            generateButton.y,
+            180,
+            16
+        );
     }
     
     /**
@@ -339,6 +382,23 @@ public class WorldEditorUI {
                 tileRenderer.toggleGrid();
             }
             
+            // Ctrl+Z to undo, Ctrl+Y or Ctrl+Shift+Z to redo
+            boolean ctrl = Gdx.input.isKeyPressed(Input.Keys.CONTROL_LEFT) ||
+                           Gdx.input.isKeyPressed(Input.Keys.CONTROL_RIGHT);
+            boolean shift = Gdx.input.isKeyPressed(Input.Keys.SHIFT_LEFT) ||
+                            Gdx.input.isKeyPressed(Input.Keys.SHIFT_RIGHT);
+            // (endless worlds have no undo history)
+            if (ctrl && streamingWorld == null && Gdx.input.isKeyJustPressed(Input.Keys.Z)) {
+                if (shift) {
+                    editJournal.redo();
+                } else {
+                    editJournal.undo();
+                }
+            }
+            if (ctrl && streamingWorld == null && Gdx.input.isKeyJustPressed(Input.Keys.Y)) {
+                editJournal.redo();
+            }
+            
             // ESC key to return to main menu
             if (Gdx.input.isKeyJustPressed(Input.Keys.ESCAPE)) {
                 currentMode = EditorMode.MAIN_MENU;
@@ -373,6 +433,14 @@ public class WorldEditorUI {
         // Convert screen coordinates to world coordinates
         Vector3 worldCoords = new Vector3(screenX, screenY, 0);
         mapViewport.unproject(worldCoords);        
+        
+        // Endless worlds have no bounds
+        if (streamingWorld != null) {
+            hoveredTileX = StreamingWorldRenderer.tileX(worldCoords.x);
+            hoveredTileY = StreamingWorldRenderer.tileY(worldCoords.y);
+            return;
+        }
+        
         // Calculate tile coordinates
         int tileX = (int)(worldCoords.x / SquareTileRenderer.TILE_SIZE);
         
@@ -389,6 +457,13 @@ public class WorldEditorUI {
         }
     }
     
+    /**
+     * Whether the mouse is over a tile (any tile, in endless mode)
+     */
+    private boolean hasHoveredTile() {
+        return streamingWorld != null ? isMouseInMapArea() : hoveredTileX >= 0 && hoveredTileY >= 0;
+    }
+    
     /**
      * Check if the mouse is in the map area
      */
@@ -403,6 +478,30 @@ public class WorldEditorUI {
      * Render the UI and map
      */
     public void render() {
+        // Swap in a freshly generated world, if one is ready
+        if (worldBuffers.swapIfPublished()) {
+            tileRenderer.markDirty();
+            // Edits to the old world can't be undone on the new one
+            editJournal.clear();
+        }
+        // Until then, show the latest preview of it over the old world
+        DoubleBufferedGrid.Preview preview = worldBuffers.getPreview();
+        if (preview != null) {
+            tileRenderer.setPreview(preview.getTiles(), preview.getStep());
+        } else {
+            tileRenderer.setPreview(null, 0);
+        }
+        
+        // Reclassify the world for a new sea level; a drag is coalesced
+        // into one reclassification per free generator. Endless worlds
+        // keep the usual sea level (their saved chunks would no longer
+        // line up), so the slider is hidden while one is shown.
+        if (streamingWorld == null && seaLevel != appliedSeaLevel && !worldBuffers.isGenerating()) {
+            appliedSeaLevel = seaLevel;
+            worldGenerator.setSeaLevel(seaLevel);
+            worldBuffers.reclassify(worldGenerator);
+        }
+        
         // Clear viewport configurations
         Gdx.gl.glViewport(0, 0, Gdx.graphics.getWidth(), Gdx.graphics.getHeight());
         
@@ -417,7 +516,7 @@ public class WorldEditorUI {
             renderBottomPanelUI();
             
             // Render hover highlight for terrain editor
-            if (currentMode == EditorMode.TERRAIN_EDITOR && hoveredTileX >= 0 && hoveredTileY >= 0) {
+            if (currentMode == EditorMode.TERRAIN_EDITOR && hasHoveredTile()) {
                 renderTileHover();
             }
         }
@@ -437,7 +536,73 @@ public class WorldEditorUI {
         Gdx.gl.glClear(GL20.GL_COLOR_BUFFER_BIT);
         
         // Render the world with the map camera
-        tileRenderer.render(mapCamera);
+        if (streamingWorld != null) {
+            updateStreamingWorld();
+            streamingRenderer.render(mapCamera);
+        } else {
+            tileRenderer.render(mapCamera);
+        }
+    }
+    
+    /**
+     * Load the chunks around what the map camera sees
+     */
+    private void updateStreamingWorld() {
+        float halfWidth = mapCamera.viewportWidth * mapCamera.zoom / 2;
+        float halfHeight = mapCamera.viewportHeight * mapCamera.zoom / 2;
+        streamingWorld.update(
+            StreamingWorldRenderer.tileX(mapCamera.position.x - halfWidth),
+            StreamingWorldRenderer.tileY(mapCamera.position.y + halfHeight),
+            StreamingWorldRenderer.tileX(mapCamera.position.x + halfWidth),
+            StreamingWorldRenderer.tileY(mapCamera.position.y - halfHeight));
+    }
+    
+    /**
+     * Switch to an endless world of the selected type (classic if that type
+     * can't be streamed) with a new seed
+     */
+    private void startEndlessWorld() {
+        stopEndlessWorld();
+        
+        BiomeGenerator.WorldType type = BiomeGenerator.supportsChunks(selectedWorldType) ?
+            selectedWorldType : BiomeGenerator.WorldType.CLASSIC;
+        // A generator of its own, so the seed can't change under the workers
+        BiomeGenerator chunkGenerator = new BiomeGenerator();
+        chunkGenerator.setSeed(MathUtils.random(1, 100000));
+        chunkGenerator.setRules(worldGenerator.getRules());
+        
+        File saveDirectory = chunkSaveDirectory == null ? null : new File(chunkSaveDirectory,
+            type.name().toLowerCase() + "-" + chunkGenerator.getSeed());
+        streamingWorld = new StreamingWorld(chunkGenerator, type, MAX_RESIDENT_CHUNKS,
+            saveDirectory, CHUNK_THREADS);
+        streamingRenderer = new StreamingWorldRenderer(streamingWorld, batch);
+        
+        // Start at the world origin
+        mapCamera.position.set(0, 0, 0);
+        mapCamera.update();
+    }
+    
+    /**
+     * Leave endless mode, saving its edited chunks
+     */
+    private void stopEndlessWorld() {
+        if (streamingWorld == null) return;
+        
+        streamingRenderer.dispose();
+        streamingWorld.dispose();
+        streamingRenderer = null;
+        streamingWorld = null;
+        centerMapCamera();
+    }
+    
+    /**
+     * Biome of the hovered tile, or null if it isn't known (yet)
+     */
+    private BiomeType getHoveredBiome() {
+        if (streamingWorld != null) {
+            return streamingWorld.getTile(hoveredTileX, hoveredTileY);
+        }
+        return grid.getTile(hoveredTileX, hoveredTileY);
     }
     
     /**
@@ -588,6 +753,10 @@ public class WorldEditorUI {
             font.draw(batch, biomeInfo, 450, BOTTOM_PANEL_HEIGHT - 15);
         } else if (selectedTabIndex == 1 && selectedWorldType != null) {
             String worldTypeInfo = "Selected World Type: " + selectedWorldType.name();
+            WorldCache.Key world = worldBuffers.getFrontWorld();
+            if (world != null) {
+                worldTypeInfo += "   Seed: " + world.getSeed();
+            }
             font.draw(batch, worldTypeInfo, 450, BOTTOM_PANEL_HEIGHT - 15);
         }
         
@@ -597,11 +766,36 @@ public class WorldEditorUI {
             "Select a world type below, then click Generate.";
         font.draw(batch, instructions, 270, BOTTOM_PANEL_HEIGHT - 40);
         
+        GenerationProgress generation = worldBuffers.getProgress();
+        if (generation != null) {
+            String stage = String.format("%s... %d%%",
+                generation.getStage().getLabel(), (int) (generation.getFraction() * 100));
+            font.draw(batch, stage, 270, BOTTOM_PANEL_HEIGHT - 65);
+        }
+        
+        if (streamingWorld != null) {
+            // Endless worlds have no overall composition; show what is loaded
+            String chunks = String.format("Endless %s: %d chunks loaded, %d generating",
+                streamingWorld.getWorldType().name(),
+                streamingWorld.getResidentCount(),
+                streamingWorld.getPendingCount());
+            font.draw(batch, chunks, 600, BOTTOM_PANEL_HEIGHT - 65);
+        } else {
+            // Draw map composition (kept up to date by the grid, no rescan)
+            BiomeHistogram histogram = grid.getHistogram();
+            String composition = String.format("Water: %.0f%%  Lava: %.0f%%  Walkable: %.0f%%",
+                (histogram.getFraction(BiomeType.DEEP_WATER) + histogram.getFraction(BiomeType.SHALLOW_WATER)) * 100,
+                histogram.getFraction(BiomeType.LAVA) * 100,
+                histogram.getWalkableFraction() * 100);
+            font.draw(batch, composition, 600, BOTTOM_PANEL_HEIGHT - 65);
+        }
+        
         // Draw hover info if applicable
-        if (hoveredTileX >= 0 && hoveredTileY >= 0) {
+        BiomeType hoveredBiome = hasHoveredTile() ? getHoveredBiome() : null;
+        if (hoveredBiome != null) {
             String positionInfo = String.format("Tile: %d, %d - Type: %s", 
                 hoveredTileX, hoveredTileY,
-                grid.getTile(hoveredTileX, hoveredTileY).name());
+                hoveredBiome.name());
             font.draw(batch, positionInfo, SCREEN_WIDTH - 250, BOTTOM_PANEL_HEIGHT - 15);
         }
         
@@ -610,6 +804,7 @@ public class WorldEditorUI {
             "WASD: Move Camera",
             "QE: Zoom",
             "G: Toggle Grid",
+            "Ctrl+Z/Y: Undo",
             "ESC: Menu"
         };
         
@@ -657,10 +852,27 @@ public class WorldEditorUI {
             }
             
             // Draw generate button label
-            glyphLayout.setText(font, "Generate Map");
+            GenerationProgress progress = worldBuffers.getProgress();
+            String generateLabel = progress != null
+                ? "Generating " + (int) (progress.getFraction() * 100) + "%"
+                : "Generate Map";
+            glyphLayout.setText(font, generateLabel);
             float genLabelX = generateButton.x + (generateButton.width - glyphLayout.width) / 2;
             float genLabelY = generateButton.y + generateButton.height / 2 + 5;
-            font.draw(batch, "Generate Map", genLabelX, genLabelY);
+            font.draw(batch, generateLabel, genLabelX, genLabelY);
+            
+            // Draw sea level above its slider (endless worlds have none)
+            if (streamingWorld == null) {
+                font.draw(batch, String.format("Sea level: %+.2f", seaLevel),
+                    seaLevelSlider.x, seaLevelSlider.y + seaLevelSlider.height + 20);
+            }
+            
+            // Draw endless world button label
+            String endlessLabel = "Endless World";
+            glyphLayout.setText(font, endlessLabel);
+            font.draw(batch, endlessLabel,
+                endlessButton.x + (endlessButton.width - glyphLayout.width) / 2,
+                endlessButton.y + endlessButton.height / 2 + 5);
         }
         
         batch.end();
@@ -711,6 +923,20 @@ public class WorldEditorUI {
         boolean generateHovered = isMouseOver(generateButton);
         shapeRenderer.setColor(generateHovered ? new Color(0.8f, 0.3f, 0.3f, 1f) : new Color(0.7f, 0.3f, 0.3f, 1f));
         shapeRenderer.rect(generateButton.x, generateButton.y, generateButton.width, generateButton.height);
+        
+        // Draw endless world button
+        shapeRenderer.setColor(isMouseOver(endlessButton) ? BUTTON_HOVER_COLOR : BUTTON_COLOR);
+        shapeRenderer.rect(endlessButton.x, endlessButton.y, endlessButton.width, endlessButton.height);
+        
+        // Draw sea level slider: track and knob (not for endless worlds)
+        if (streamingWorld == null) {
+            shapeRenderer.setColor(BUTTON_COLOR);
+            shapeRenderer.rect(seaLevelSlider.x, seaLevelSlider.y + seaLevelSlider.height / 2 - 2,
+                seaLevelSlider.width, 4);
+            float knobX = seaLevelSlider.x + (seaLevel + SEA_LEVEL_RANGE) / (2 * SEA_LEVEL_RANGE) * seaLevelSlider.width;
+            shapeRenderer.setColor(draggingSeaLevel ? BUTTON_ACTIVE_COLOR : BUTTON_HOVER_COLOR);
+            shapeRenderer.rect(knobX - 4, seaLevelSlider.y, 8, seaLevelSlider.height);
+        }
     }
     
     /**
@@ -726,6 +952,10 @@ public class WorldEditorUI {
         
         float x = hoveredTileX * SquareTileRenderer.TILE_SIZE;
         float y = (grid.getHeight() - 1 - hoveredTileY) * SquareTileRenderer.TILE_SIZE; // Invert Y for rendering
+        if (streamingWorld != null) {
+            // Endless rows grow down from world y 0
+            y = -(hoveredTileY + 1) * SquareTileRenderer.TILE_SIZE;
+        }
         float size = SquareTileRenderer.TILE_SIZE;
         
         shapeRenderer.rect(x, y, size, size);
@@ -764,8 +994,10 @@ public class WorldEditorUI {
         setupMainMenu();
         setupEditorUI();
         
-        // Recalcular o zoom do mapa após redimensionar
-        centerMapCamera();
+        // Recalcular o zoom do mapa após redimensionar (endless worlds keep their position)
+        if (streamingWorld == null) {
+            centerMapCamera();
+        }
     }
     
     /**
@@ -775,11 +1007,38 @@ public class WorldEditorUI {
         return inputMultiplexer;
     }
     
+    /**
+     * Keep edited chunks of endless worlds in this directory (null to drop
+     * the edits when a chunk is evicted)
+     */
+    public void setChunkSaveDirectory(File directory) {
+        this.chunkSaveDirectory = directory;
+    }
+    
+    /**
+     * Start generating a world of a type in the background, without leaving
+     * the current mode (e.g. the first world, behind the main menu). Like
+     * the generate button, this goes through the double buffer, so the world
+     * is swapped in by render() and can be reclassified afterwards.
+     */
+    public void generateWorld(BiomeGenerator.WorldType type) {
+        selectedWorldType = type;
+        worldBuffers.generate(worldGenerator, type);
+    }
+    
+    /**
+     * Reuse previously generated worlds from this cache when generating
+     */
+    public void setWorldCache(WorldCache cache) {
+        worldBuffers.setCache(cache);
+    }
+    
     /**
      * Clean up resources
      */
     public void dispose() {
-        // No resources to dispose in this class
+        stopEndlessWorld();
+        worldBuffers.dispose();
     }
     
     /**
@@ -843,6 +1102,20 @@ public class WorldEditorUI {
      * InputProcessor for UI interactions
      */
     private class UIInputProcessor extends InputAdapter {
+        @Override
+        public boolean touchDragged(int screenX, int screenY, int pointer) {
+            if (!draggingSeaLevel) return false;
+            setSeaLevelFromSlider(screenX);
+            return true;
+        }
+        
+        @Override
+        public boolean touchUp(int screenX, int screenY, int pointer, int button) {
+            if (!draggingSeaLevel) return false;
+            draggingSeaLevel = false;
+            return true;
+        }
+        
         @Override
         public boolean touchDown(int screenX, int screenY, int pointer, int button) {
             if (button == Input.Buttons.LEFT) {
@@ -880,11 +1153,19 @@ public class WorldEditorUI {
                     // Handle map area clicks for terrain editing
                     else if (mapArea.contains(screenX, invertedY) && 
                              currentMode == EditorMode.TERRAIN_EDITOR) {
+                        // Endless worlds are edited chunk by chunk, without undo
+                        if (streamingWorld != null) {
+                            return hasHoveredTile() &&
+                                streamingWorld.setTile(hoveredTileX, hoveredTileY, selectedBiome);
+                        }
+                        
                         // Place terrain at hovered tile
                         if (hoveredTileX >= 0 && hoveredTileY >= 0) {
                             System.out.println("Placing terrain at: " + hoveredTileX + ", " + hoveredTileY);
+                            // The renderer repaints just this tile's region on its own
+                            editJournal.beginOperation();
                             grid.setTile(hoveredTileX, hoveredTileY, selectedBiome);
-                            tileRenderer.markDirty();
+                            editJournal.endOperation();
                             return true;
                         }
                     }
@@ -894,6 +1175,15 @@ public class WorldEditorUI {
             return false;
         }
         
+        /**
+         * Set the sea level from a mouse x position over its slider, in
+         * steps of 0.01
+         */
+        private void setSeaLevelFromSlider(int screenX) {
+            float position = MathUtils.clamp((screenX - seaLevelSlider.x) / seaLevelSlider.width, 0, 1);
+            seaLevel = Math.round((position * 2 - 1) * SEA_LEVEL_RANGE * 100) / 100f;
+        }
+        
         /**
          * Handle clicks on main menu buttons
          */
@@ -935,26 +1225,61 @@ public class WorldEditorUI {
             BiomeGenerator.WorldType[] worldTypes = BiomeGenerator.WorldType.values();
             for (int i = 0; i < worldTypeButtons.size && i < worldTypes.length; i++) {
                 if (worldTypeButtons.get(i).contains(screenX, invertedY)) {
+                    if (worldTypes[i] != selectedWorldType) {
+                        // The world being generated is no longer wanted
+                        worldBuffers.cancel();
+                    }
                     selectedWorldType = worldTypes[i];
                     return true;
                 }
             }
             
+            // Check sea level slider (with some slack around the knob), which
+            // endless worlds don't show
+            if (streamingWorld == null &&
+                seaLevelSlider.x - 4 <= screenX && screenX <= seaLevelSlider.x + seaLevelSlider.width + 4 &&
+                seaLevelSlider.y - 4 <= invertedY && invertedY <= seaLevelSlider.y + seaLevelSlider.height + 4) {
+                draggingSeaLevel = true;
+                setSeaLevelFromSlider(screenX);
+                return true;
+            }
+            
             // Check generate button
             if (generateButton.contains(screenX, invertedY)) {
+                stopEndlessWorld();
                 generateNewWorld();
                 return true;
             }
             
+            // Check endless world button
+            if (endlessButton.contains(screenX, invertedY)) {
+                startEndlessWorld();
+                currentMode = EditorMode.TERRAIN_EDITOR;
+                selectedTabIndex = 0;
+                return true;
+            }
+            
             return false;
         }
         
         /**
-         * Generate a new world using the selected world type
+         * Generate a world of the selected world type. Generation runs in the
+         * background and the result is swapped in by render(); a generation
+         * still running is cancelled.
+         *
+         * If only the type changed since the shown world, its seed is kept,
+         * so flipping between types revisits the same (cached) worlds;
+         * otherwise a new seed is picked.
          */
         private void generateNewWorld() {
-            worldGenerator.generateWorld(grid, selectedWorldType);
-            tileRenderer.markDirty();
+            WorldCache.Key world = worldBuffers.getFrontWorld();
+            if (world != null && world.getType() != selectedWorldType) {
+                worldGenerator.setSeed(world.getSeed());
+            } else {
+                // Generation is deterministic per seed, so pick a new one
+                worldGenerator.setSeed(MathUtils.random(1, 100000));
+            }
+            worldBuffers.generate(worldGenerator, selectedWorldType);
             
             // Switch to terrain editing mode after generating
             currentMode = EditorMode.TERRAIN_EDITOR;
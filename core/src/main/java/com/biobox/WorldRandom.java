@@ -0,0 +1,87 @@
+package com.biobox;
+
+/**
+ * Deterministic, splittable random numbers for world generation
+ * (SplitMix64). A generator seeded the same way always produces the same
+ * sequence, and {@link #split(long)} derives independent streams from the
+ * seed alone, so each generation stage or chunk gets its own stream no
+ * matter how many numbers other stages drew or in which order they ran.
+ *
+ * Not thread-safe: give each thread its own split stream.
+ */
+public class WorldRandom {
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    // Seed of this stream; splits derive from it, not from the current state
+    private final long streamSeed;
+    private long state;
+
+    public WorldRandom(long seed) {
+        this.streamSeed = mix(seed);
+        this.state = streamSeed;
+    }
+
+    /**
+     * Independent stream for a stage or sub-task. The same key always gives
+     * the same stream, however much of this one was used.
+     */
+    public WorldRandom split(long key) {
+        return new WorldRandom(streamSeed ^ mix(key * GOLDEN_GAMMA + 1));
+    }
+
+    /**
+     * Independent stream for one chunk (or any other 2D cell)
+     */
+    public WorldRandom split(int chunkX, int chunkY) {
+        return split(((long) chunkX << 32) | (chunkY & 0xFFFFFFFFL));
+    }
+
+    public long nextLong() {
+        state += GOLDEN_GAMMA;
+        return mix(state);
+    }
+
+    /**
+     * Random int from 0 (inclusive) to bound (exclusive)
+     */
+    public int nextInt(int bound) {
+        if (bound <= 0) {
+            throw new IllegalArgumentException("Bound must be positive: " + bound);
+        }
+        return (int) (((nextLong() >>> 32) * bound) >>> 32);
+    }
+
+    /**
+     * Random int from start to end, both inclusive (like MathUtils.random)
+     */
+    public int nextInt(int start, int end) {
+        return start + nextInt(end - start + 1);
+    }
+
+    /**
+     * Random float from 0 (inclusive) to 1 (exclusive)
+     */
+    public float nextFloat() {
+        return (nextLong() >>> 40) * 0x1.0p-24f;
+    }
+
+    /**
+     * Random float from start (inclusive) to end (exclusive)
+     */
+    public float nextFloat(float start, float end) {
+        return start + nextFloat() * (end - start);
+    }
+
+    /**
+     * True with the given chance, from 0 to 1
+     */
+    public boolean nextBoolean(float chance) {
+        return nextFloat() < chance;
+    }
+
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,252 @@
+package com.biobox.core;
+
+import java.util.Arrays;
+
+/**
+ * Per-biome tile counts of a {@link SquareGrid}, kept up to date on every
+ * write so "how much of the map is water" never needs a rescan. Optionally
+ * also keeps an occupancy bitmap per biome for fast rectangle queries such
+ * as "all LAVA tiles in this area".
+ *
+ * Obtain it from {@link SquareGrid#getHistogram()}.
+ */
+public class BiomeHistogram {
+
+    /**
+     * Receives the coordinates of each matching tile
+     */
+    public interface TileVisitor {
+        void visit(int x, int y);
+    }
+
+    private final SquareGrid grid;
+    private final int width;
+    private final int height;
+    private final long[] counts;
+
+    // One bit per tile, rows padded to whole words; null until enabled
+    private final long[][] occupancy;
+    private final int wordsPerRow;
+
+    BiomeHistogram(SquareGrid grid) {
+        this.grid = grid;
+        this.width = grid.getWidth();
+        this.height = grid.getHeight();
+        this.counts = new long[BiomeType.values().length];
+        this.occupancy = new long[counts.length][];
+        this.wordsPerRow = (width + 63) >>> 6;
+        countTiles();
+    }
+
+    public long getCount(BiomeType type) {
+        return counts[type.ordinal()];
+    }
+
+    /**
+     * Fraction of the map covered by a biome, from 0 to 1
+     */
+    public float getFraction(BiomeType type) {
+        return counts[type.ordinal()] / (float) ((long) width * height);
+    }
+
+    public long getWalkableCount() {
+        long walkable = 0;
+        for (BiomeType type : BiomeType.values()) {
+            if (type.isWalkable()) walkable += counts[type.ordinal()];
+        }
+        return walkable;
+    }
+
+    /**
+     * Fraction of the map that can be walked on, from 0 to 1
+     */
+    public float getWalkableFraction() {
+        return getWalkableCount() / (float) ((long) width * height);
+    }
+
+    /**
+     * Start keeping an occupancy bitmap for a biome (one bit per tile).
+     * Costs a full scan of the grid the first time.
+     */
+    public void enableOccupancy(BiomeType type) {
+        int ordinal = type.ordinal();
+        if (occupancy[ordinal] != null) return;
+        occupancy[ordinal] = scanOccupancy(ordinal);
+    }
+
+    public void disableOccupancy(BiomeType type) {
+        occupancy[type.ordinal()] = null;
+    }
+
+    public boolean hasOccupancy(BiomeType type) {
+        return occupancy[type.ordinal()] != null;
+    }
+
+    /**
+     * Count tiles of a biome inside a rectangle, a word (64 tiles) at a time.
+     * Requires the biome's occupancy bitmap.
+     */
+    public long countInRect(BiomeType type, int x, int y, int rectWidth, int rectHeight) {
+        long[] bits = requireOccupancy(type);
+        int minX = Math.max(x, 0);
+        int minY = Math.max(y, 0);
+        int maxX = Math.min(x + rectWidth, width) - 1;
+        int maxY = Math.min(y + rectHeight, height) - 1;
+        if (minX > maxX || minY > maxY) return 0;
+
+        int firstWord = minX >>> 6;
+        int lastWord = maxX >>> 6;
+        long firstMask = -1L << minX;
+        long lastMask = -1L >>> (63 - (maxX & 63));
+
+        long count = 0;
+        for (int row = minY; row <= maxY; row++) {
+            int base = row * wordsPerRow;
+            for (int word = firstWord; word <= lastWord; word++) {
+                long value = bits[base + word];
+                if (word == firstWord) value &= firstMask;
+                if (word == lastWord) value &= lastMask;
+                count += Long.bitCount(value);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Visit every tile of a biome inside a rectangle, skipping empty words.
+     * Requires the biome's occupancy bitmap.
+     */
+    public void forEachInRect(BiomeType type, int x, int y, int rectWidth, int rectHeight, TileVisitor visitor) {
+        long[] bits = requireOccupancy(type);
+        int minX = Math.max(x, 0);
+        int minY = Math.max(y, 0);
+        int maxX = Math.min(x + rectWidth, width) - 1;
+        int maxY = Math.min(y + rectHeight, height) - 1;
+        if (minX > maxX || minY > maxY) return;
+
+        int firstWord = minX >>> 6;
+        int lastWord = maxX >>> 6;
+        long firstMask = -1L << minX;
+        long lastMask = -1L >>> (63 - (maxX & 63));
+
+        for (int row = minY; row <= maxY; row++) {
+            int base = row * wordsPerRow;
+            for (int word = firstWord; word <= lastWord; word++) {
+                long value = bits[base + word];
+                if (word == firstWord) value &= firstMask;
+                if (word == lastWord) value &= lastMask;
+                while (value != 0) {
+                    visitor.visit((word << 6) + Long.numberOfTrailingZeros(value), row);
+                    value &= value - 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Recount everything after the grid's tiles were replaced wholesale,
+     * keeping the same occupancy bitmaps enabled
+     */
+    void rebuild() {
+        Arrays.fill(counts, 0);
+        countTiles();
+        for (int ordinal = 0; ordinal < occupancy.length; ordinal++) {
+            if (occupancy[ordinal] != null) {
+                occupancy[ordinal] = scanOccupancy(ordinal);
+            }
+        }
+    }
+
+    private void countTiles() {
+        byte[] row = new byte[width];
+        for (int y = 0; y < height; y++) {
+            grid.getStorage().getRow(y, 0, width, row, 0);
+            for (int x = 0; x < width; x++) {
+                counts[row[x]]++;
+            }
+        }
+    }
+
+    private long[] scanOccupancy(int ordinal) {
+        long[] bits = new long[wordsPerRow * height];
+        byte[] row = new byte[width];
+        for (int y = 0; y < height; y++) {
+            grid.getStorage().getRow(y, 0, width, row, 0);
+            int base = y * wordsPerRow;
+            for (int x = 0; x < width; x++) {
+                if (row[x] == ordinal) bits[base + (x >>> 6)] |= 1L << x;
+            }
+        }
+        return bits;
+    }
+
+    private long[] requireOccupancy(BiomeType type) {
+        long[] bits = occupancy[type.ordinal()];
+        if (bits == null) {
+            throw new IllegalStateException("Occupancy is not enabled for " + type);
+        }
+        return bits;
+    }
+
+    /**
+     * Record a single tile changing biome
+     */
+    void update(int x, int y, int oldOrdinal, int newOrdinal) {
+        counts[oldOrdinal]--;
+        counts[newOrdinal]++;
+
+        long[] oldBits = occupancy[oldOrdinal];
+        if (oldBits != null) oldBits[y * wordsPerRow + (x >>> 6)] &= ~(1L << x);
+        long[] newBits = occupancy[newOrdinal];
+        if (newBits != null) newBits[y * wordsPerRow + (x >>> 6)] |= 1L << x;
+    }
+
+    /**
+     * Record a run of a row losing its current biomes, before it is overwritten
+     */
+    void removeRow(int y, int x, byte[] ordinals, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            counts[ordinals[offset + i]]--;
+        }
+        for (long[] bits : occupancy) {
+            if (bits != null) setSpan(bits, y, x, x + length - 1, false);
+        }
+    }
+
+    /**
+     * Record a run of a row taking on new biomes
+     */
+    void addRow(int y, int x, byte[] ordinals, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            int ordinal = ordinals[offset + i];
+            counts[ordinal]++;
+            long[] bits = occupancy[ordinal];
+            if (bits != null) bits[y * wordsPerRow + ((x + i) >>> 6)] |= 1L << (x + i);
+        }
+    }
+
+    /**
+     * Record a run of a row being filled with one biome
+     */
+    void addSpan(int y, int x, int length, int ordinal) {
+        counts[ordinal] += length;
+        long[] bits = occupancy[ordinal];
+        if (bits != null) setSpan(bits, y, x, x + length - 1, true);
+    }
+
+    private void setSpan(long[] bits, int y, int fromX, int toX, boolean value) {
+        int base = y * wordsPerRow;
+        int firstWord = fromX >>> 6;
+        int lastWord = toX >>> 6;
+        for (int word = firstWord; word <= lastWord; word++) {
+            long mask = -1L;
+            if (word == firstWord) mask &= -1L << fromX;
+            if (word == lastWord) mask &= -1L >>> (63 - (toX & 63));
+            if (value) {
+                bits[base + word] |= mask;
+            } else {
+                bits[base + word] &= ~mask;
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.biobox.core;
+
+import java.util.Arrays;
+
+/**
+ * Quantized lookup table from up to three classification inputs (e.g.
+ * height, biome variation and temperature) to a biome ordinal, compiled from
+ * {@link BiomeRules}. Each input is clamped to its range and bucketed, so
+ * classifying a tile costs a few multiplies and one array load instead of a
+ * cascade of branches.
+ *
+ * Immutable, so any number of threads may classify with it at once.
+ */
+public class BiomeTable {
+    private final float[] minimum;
+    // Buckets per unit of input
+    private final float[] scale;
+    private final int[] buckets;
+    // Row-major over the axes: the last axis varies fastest
+    private final byte[] table;
+    // Equal for tables that classify alike, to tell when results still hold
+    private final long contentHash;
+
+    BiomeTable(float[] minimum, float[] maximum, int[] buckets, byte[] table) {
+        this.minimum = minimum;
+        this.buckets = buckets;
+        this.table = table;
+        this.scale = new float[minimum.length];
+        for (int axis = 0; axis < minimum.length; axis++) {
+            scale[axis] = buckets[axis] / (maximum[axis] - minimum[axis]);
+        }
+        long hash = Arrays.hashCode(table);
+        hash = hash * 31 + Arrays.hashCode(minimum);
+        hash = hash * 31 + Arrays.hashCode(scale);
+        contentHash = hash * 31 + Arrays.hashCode(buckets);
+    }
+
+    /**
+     * Biome ordinal for the given inputs, in the order the rules declare
+     * their axes. Inputs beyond the declared axes are ignored.
+     */
+    public int classify(float first, float second, float third) {
+        int index = bucket(0, first);
+        index = index * buckets[1] + bucket(1, second);
+        index = index * buckets[2] + bucket(2, third);
+        return table[index];
+    }
+
+    public BiomeType getBiome(float first, float second, float third) {
+        return BiomeType.fromOrdinal(classify(first, second, third));
+    }
+
+    /**
+     * Hash of the table's ranges and contents
+     */
+    public long getContentHash() {
+        return contentHash;
+    }
+
+    /**
+     * Bytes taken by the table
+     */
+    public int getSize() {
+        return table.length;
+    }
+
+    private int bucket(int axis, float value) {
+        int index = (int) ((value - minimum[axis]) * scale[axis]);
+        if (index < 0) return 0;
+        if (index >= buckets[axis]) return buckets[axis] - 1;
+        return index;
+    }
+}
@@ -21,6 +21,9 @@ public enum BiomeType {
     SWAMP(true, new Color(0.3f, 0.4f, 0.2f, 1f)),
     LAVA(false, new Color(0.9f, 0.3f, 0.0f, 1f));
 
+    // Cached copy of values() so ordinal lookups don't allocate
+    private static final BiomeType[] VALUES = values();
+
     private final boolean walkable;
     private final Color baseColor;
 
@@ -36,4 +39,11 @@ public enum BiomeType {
     public Color getBaseColor() {
         return baseColor;
     }
+
+    /**
+     * Get the biome for an ordinal as stored in {@link SquareGrid}
+     */
+    public static BiomeType fromOrdinal(int ordinal) {
+        return VALUES[ordinal];
+    }
 }
\ No newline at end of file
@@ -0,0 +1,128 @@
+package com.biobox.core;
+
+/**
+ * Distance from every land tile to the nearest water (shallow or deep) and
+ * from every water tile to the nearest land, computed once for the whole
+ * grid (or a band of its rows) with a two-pass chamfer transform: one sweep
+ * down and one back up, so the cost is linear in the number of tiles
+ * however wide the coastal bands that read it.
+ *
+ * Distances use the 3-4 chamfer: 3 per straight step and 4 per diagonal
+ * one, within 6% of the Euclidean distance. A distance of 4 or less means
+ * the 3x3 neighbourhood holds the other kind of tile. Distances are capped
+ * at MAX_DISTANCE (one byte per tile and direction), and the area outside
+ * the grid (or band) counts as neither land nor water.
+ *
+ * A band only sees the coasts inside it, so distances near its top and
+ * bottom edges can come out too large; rows at least n straight steps from
+ * those edges (unless they are the grid's own) are exact up to
+ * n * STRAIGHT. Banding keeps the scratch memory at two bytes per tile of
+ * the band, which matters for grids stored off the heap.
+ */
+public class CoastDistance {
+    public static final int STRAIGHT = 3;
+    public static final int DIAGONAL = 4;
+    // Tiles further than this (85 tiles) from the coast all read as this
+    public static final int MAX_DISTANCE = 255;
+
+    private final int width;
+    private final int height;
+    // First grid row of the band
+    private final int startY;
+    // Row-major from startY, unsigned; 0 for tiles of the kind measured to
+    private final byte[] toWater;
+    private final byte[] toLand;
+
+    public CoastDistance(SquareGrid grid) {
+        this(grid, 0, grid.getHeight());
+    }
+
+    /**
+     * Distances within the rows from startY on, as if the rest of the grid
+     * didn't exist
+     */
+    public CoastDistance(SquareGrid grid, int startY, int rows) {
+        if (startY < 0 || rows < 0 || startY + rows > grid.getHeight()) {
+            throw new IllegalArgumentException("Rows " + startY + " to " + (startY + rows)
+                + " outside a grid of height " + grid.getHeight());
+        }
+        long tileCount = (long) grid.getWidth() * rows;
+        if (tileCount > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Band of " + grid.getWidth() + "x" + rows + " tiles is too large");
+        }
+        this.width = grid.getWidth();
+        this.height = rows;
+        this.startY = startY;
+        toWater = new byte[(int) tileCount];
+        toLand = new byte[(int) tileCount];
+
+        int shallowWater = BiomeType.SHALLOW_WATER.ordinal();
+        int deepWater = BiomeType.DEEP_WATER.ordinal();
+        byte[] row = new byte[width];
+        for (int y = 0; y < height; y++) {
+            grid.getStorage().getRow(startY + y, 0, width, row, 0);
+            int i = y * width;
+            for (int x = 0; x < width; x++, i++) {
+                boolean water = row[x] == shallowWater || row[x] == deepWater;
+                toWater[i] = (byte) (water ? 0 : MAX_DISTANCE);
+                toLand[i] = (byte) (water ? MAX_DISTANCE : 0);
+            }
+        }
+
+        sweep(toWater);
+        sweep(toLand);
+    }
+
+    /**
+     * Chamfer distance from a tile (in grid coordinates, within the band) to
+     * the nearest water, 0 for water
+     */
+    public int toWater(int x, int y) {
+        return toWater[(y - startY) * width + x] & 0xFF;
+    }
+
+    /**
+     * Chamfer distance from a tile (in grid coordinates, within the band) to
+     * the nearest land, 0 for land
+     */
+    public int toLand(int x, int y) {
+        return toLand[(y - startY) * width + x] & 0xFF;
+    }
+
+    /**
+     * Propagate distances from the zero tiles: first from the neighbours
+     * above and to the left, then from those below and to the right
+     */
+    private void sweep(byte[] distance) {
+        for (int y = 0; y < height; y++) {
+            int i = y * width;
+            for (int x = 0; x < width; x++, i++) {
+                int d = distance[i] & 0xFF;
+                if (d == 0) continue;
+                if (x > 0) d = Math.min(d, (distance[i - 1] & 0xFF) + STRAIGHT);
+                if (y > 0) {
+                    int above = i - width;
+                    d = Math.min(d, (distance[above] & 0xFF) + STRAIGHT);
+                    if (x > 0) d = Math.min(d, (distance[above - 1] & 0xFF) + DIAGONAL);
+                    if (x < width - 1) d = Math.min(d, (distance[above + 1] & 0xFF) + DIAGONAL);
+                }
+                distance[i] = (byte) Math.min(d, MAX_DISTANCE);
+            }
+        }
+        for (int y = height - 1; y >= 0; y--) {
+            int i = y * width + width - 1;
+            for (int x = width - 1; x >= 0; x--, i--) {
+                int d = distance[i] & 0xFF;
+                if (d == 0) continue;
+                if (x < width - 1) d = Math.min(d, (distance[i + 1] & 0xFF) + STRAIGHT);
+                if (y < height - 1) {
+                    int below = i + width;
+                    d = Math.min(d, (distance[below] & 0xFF) + STRAIGHT);
+                    if (x < width - 1) d = Math.min(d, (distance[below + 1] & 0xFF) + DIAGONAL);
+                    if (x > 0) d = Math.min(d, (distance[below - 1] & 0xFF) + DIAGONAL);
+                }
+                distance[i] = (byte) Math.min(d, MAX_DISTANCE);
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.biobox.core;
+
+/**
+ * Seeded 2D gradient noise with optional fBm octaves. Any point or
+ * rectangle can be evaluated on its own, and a given seed always yields the
+ * same value at the same coordinate, so a single chunk, region or tile can
+ * be generated without producing the rest of the map.
+ *
+ * Uses the same knobs as the old whole-grid noise layers: radius is the
+ * feature size in tiles and values lie in [0, modifier].
+ *
+ * Lattice gradients are picked by hashing the full lattice coordinates, so
+ * the noise never repeats, and positions are evaluated in double precision,
+ * so it stays as detailed millions of tiles from the origin (as endless
+ * worlds need) as near it.
+ */
+public class CoherentNoise {
+    // Odd constants spreading lattice coordinates over the hash input
+    private static final long CELL_X_MULTIPLIER = 0x9E3779B97F4A7C15L;
+    private static final long CELL_Y_MULTIPLIER = 0xC2B2AE3D27D4EB4FL;
+    private static final long HASH_MULTIPLIER = 0xBF58476D1CE4E5B9L;
+
+    // Unit gradients in eight directions
+    private static final float DIAGONAL = 0.70710677f;
+    private static final float[] GRADIENT_X = {1, -1, 0, 0, DIAGONAL, -DIAGONAL, DIAGONAL, -DIAGONAL};
+    private static final float[] GRADIENT_Y = {0, 0, 1, -1, DIAGONAL, DIAGONAL, -DIAGONAL, -DIAGONAL};
+
+    // Scales raw noise so its spread over [0, 1] is close to that of the
+    // value noise the biome thresholds were tuned for
+    private static final float STRETCH = 0.72f;
+
+    // Hash salt per octave, derived from the seed
+    private final long[] salts;
+    private final double frequency;
+    private final float modifier;
+    private final int octaves;
+    private final float normalization;
+
+    // Per-octave lattice offsets, between 0.25 and 0.75: they keep integer
+    // tile coordinates off the lattice points, where gradient noise is 0
+    private final float[] offsetX;
+    private final float[] offsetY;
+
+    public CoherentNoise(int seed, float radius, float modifier) {
+        this(seed, radius, modifier, 1);
+    }
+
+    /**
+     * @param octaves number of fBm octaves, each at twice the frequency and
+     *                half the amplitude of the previous one
+     */
+    public CoherentNoise(int seed, float radius, float modifier, int octaves) {
+        if (radius <= 0) {
+            throw new IllegalArgumentException("Radius must be positive: " + radius);
+        }
+        if (octaves < 1) {
+            throw new IllegalArgumentException("Octaves must be at least 1: " + octaves);
+        }
+        this.frequency = 1.0 / radius;
+        this.modifier = modifier;
+        this.octaves = octaves;
+
+        WorldRandom random = new WorldRandom(seed);
+        salts = new long[octaves];
+        offsetX = new float[octaves];
+        offsetY = new float[octaves];
+        // Octaves are independent, so their sum spreads with the root of the
+        // summed squared amplitudes; dividing by it keeps the spread (and so
+        // the biome proportions) of a single octave
+        float amplitudeSquares = 0;
+        float amplitude = 1;
+        for (int octave = 0; octave < octaves; octave++) {
+            salts[octave] = random.nextLong();
+            offsetX[octave] = random.nextFloat(0.25f, 0.75f);
+            offsetY[octave] = random.nextFloat(0.25f, 0.75f);
+            amplitudeSquares += amplitude * amplitude;
+            amplitude *= 0.5f;
+        }
+        this.normalization = STRETCH / (float) Math.sqrt(amplitudeSquares);
+    }
+
+    /**
+     * Noise value at a tile coordinate, in [0, modifier]
+     */
+    public float get(double x, double y) {
+        float sum = 0;
+        float amplitude = 1;
+        double scale = frequency;
+        for (int octave = 0; octave < octaves; octave++) {
+            sum += gradientNoise(x * scale + offsetX[octave], y * scale + offsetY[octave], salts[octave]) * amplitude;
+            amplitude *= 0.5f;
+            scale *= 2;
+        }
+
+        float value = 0.5f + sum * normalization;
+        if (value < 0) value = 0;
+        if (value > 1) value = 1;
+        return value * modifier;
+    }
+
+    /**
+     * Evaluate a rectangle of tiles into dst, row by row: tile (x + i, y + j)
+     * goes to dst[offset + j * stride + i]
+     */
+    public void fill(int x, int y, int width, int height, float[] dst, int offset, int stride) {
+        for (int j = 0; j < height; j++) {
+            int rowOffset = offset + j * stride;
+            for (int i = 0; i < width; i++) {
+                dst[rowOffset + i] = get(x + i, y + j);
+            }
+        }
+    }
+
+    private float gradientNoise(double x, double y, long salt) {
+        long cellX = floor(x);
+        long cellY = floor(y);
+        // The fraction within the cell is small enough for float
+        float fx = (float) (x - cellX);
+        float fy = (float) (y - cellY);
+
+        float n00 = dot(gradient(cellX, cellY, salt), fx, fy);
+        float n10 = dot(gradient(cellX + 1, cellY, salt), fx - 1, fy);
+        float n01 = dot(gradient(cellX, cellY + 1, salt), fx, fy - 1);
+        float n11 = dot(gradient(cellX + 1, cellY + 1, salt), fx - 1, fy - 1);
+
+        float u = fade(fx);
+        float v = fade(fy);
+        float bottom = n00 + u * (n10 - n00);
+        float top = n01 + u * (n11 - n01);
+        // Unit gradients give at most sqrt(2)/2; scale to about [-1, 1]
+        return (bottom + v * (top - bottom)) * 1.4142135f;
+    }
+
+    /**
+     * Which of the eight gradients a lattice point has: the top bits of a
+     * hash of its coordinates. One xor-shift-multiply round is enough to
+     * pick among eight; the full WorldRandom.mix costs noticeably more.
+     */
+    private static int gradient(long cellX, long cellY, long salt) {
+        long hash = salt ^ cellX * CELL_X_MULTIPLIER ^ cellY * CELL_Y_MULTIPLIER;
+        hash = (hash ^ (hash >>> 32)) * HASH_MULTIPLIER;
+        return (int) (hash >>> 61);
+    }
+
+    private static float dot(int gradient, float x, float y) {
+        return GRADIENT_X[gradient] * x + GRADIENT_Y[gradient] * y;
+    }
+
+    private static float fade(float t) {
+        return t * t * t * (t * (t * 6 - 15) + 10);
+    }
+
+    private static long floor(double value) {
+        long truncated = (long) value;
+        return value < truncated ? truncated - 1 : truncated;
+    }
+}
@@ -0,0 +1,307 @@
+package com.biobox.core;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Undo/redo history for edits to a {@link SquareGrid}. Only the tiles an
+ * operation actually changed are kept, as runs of consecutive tiles with the
+ * same old and new biome, so a brush stroke or a filled rectangle costs a few
+ * bytes per row instead of a copy of the grid. The history is bounded by a
+ * memory budget; the oldest operations are dropped first.
+ *
+ * Changes are recorded between {@link #beginOperation()} and
+ * {@link #endOperation()}; writes outside an operation (e.g. generating a new
+ * world) are not recorded, so call {@link #clear()} after those.
+ */
+public class EditJournal {
+    // Rough per-operation bookkeeping cost, counted against the budget
+    private static final int OPERATION_OVERHEAD = 32;
+    // Bytes held per tile recorded while an operation is open
+    private static final int PENDING_TILE_BYTES = 9;
+    // Pending tiles are sorted on (index << SEQUENCE_BITS | sequence)
+    private static final int SEQUENCE_BITS = 28;
+
+    private final SquareGrid grid;
+    private final long memoryBudget;
+
+    private final ArrayDeque<byte[]> undoStack = new ArrayDeque<>();
+    private final ArrayDeque<byte[]> redoStack = new ArrayDeque<>();
+    private long memoryUsed;
+
+    // Tiles touched by the open operation, with their value before the write
+    private int depth;
+    private long[] pendingKeys = new long[64];
+    private byte[] pendingOld = new byte[64];
+    private int pendingCount;
+    private boolean overflowed;
+
+    public EditJournal(SquareGrid grid, long memoryBudget) {
+        if (memoryBudget <= 0) {
+            throw new IllegalArgumentException("Memory budget must be positive: " + memoryBudget);
+        }
+        this.grid = grid;
+        this.memoryBudget = memoryBudget;
+        grid.setJournal(this);
+    }
+
+    /**
+     * Start an operation; every tile change until the matching
+     * {@link #endOperation()} is undone as one step. Operations may nest, in
+     * which case only the outermost one counts.
+     */
+    public void beginOperation() {
+        depth++;
+    }
+
+    /**
+     * Finish the current operation and add it to the history. Operations
+     * that changed nothing leave the history (including redo) untouched.
+     */
+    public void endOperation() {
+        if (depth == 0) {
+            throw new IllegalStateException("No operation in progress");
+        }
+        if (--depth > 0) return;
+
+        if (overflowed) {
+            // Too large to keep: older steps can no longer be undone in order
+            overflowed = false;
+            clear();
+            return;
+        }
+
+        byte[] encoded = encodePending();
+        pendingCount = 0;
+        if (encoded == null) return;
+
+        // A new edit ends the redo branch
+        while (!redoStack.isEmpty()) {
+            memoryUsed -= redoStack.removeLast().length + OPERATION_OVERHEAD;
+        }
+        undoStack.addLast(encoded);
+        memoryUsed += encoded.length + OPERATION_OVERHEAD;
+        while (memoryUsed > memoryBudget && !undoStack.isEmpty()) {
+            memoryUsed -= undoStack.removeFirst().length + OPERATION_OVERHEAD;
+        }
+    }
+
+    /**
+     * Whether tile changes are currently being recorded
+     */
+    public boolean isRecording() {
+        return depth > 0 && !overflowed;
+    }
+
+    /**
+     * Revert the most recent operation. Returns false if there is nothing to
+     * undo.
+     */
+    public boolean undo() {
+        return move(undoStack, redoStack, true);
+    }
+
+    /**
+     * Re-apply the most recently undone operation. Returns false if there is
+     * nothing to redo.
+     */
+    public boolean redo() {
+        return move(redoStack, undoStack, false);
+    }
+
+    public boolean canUndo() {
+        return !undoStack.isEmpty();
+    }
+
+    public boolean canRedo() {
+        return !redoStack.isEmpty();
+    }
+
+    public int getUndoCount() {
+        return undoStack.size();
+    }
+
+    /**
+     * Forget the whole history
+     */
+    public void clear() {
+        undoStack.clear();
+        redoStack.clear();
+        memoryUsed = 0;
+        pendingCount = 0;
+    }
+
+    /**
+     * Bytes held by the undo and redo history
+     */
+    public long getMemoryUsed() {
+        return memoryUsed;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Record that a tile is about to change from previous (called by the grid)
+     */
+    void record(int x, int y, int previous) {
+        if (!isRecording()) return;
+        if (pendingCount == pendingKeys.length) {
+            if ((long) pendingCount * PENDING_TILE_BYTES > memoryBudget
+                    || pendingCount >= 1 << SEQUENCE_BITS) {
+                overflowed = true;
+                pendingCount = 0;
+                pendingKeys = new long[64];
+                pendingOld = new byte[64];
+                return;
+            }
+            pendingKeys = Arrays.copyOf(pendingKeys, pendingCount * 2);
+            pendingOld = Arrays.copyOf(pendingOld, pendingCount * 2);
+        }
+        long index = (long) y * grid.getWidth() + x;
+        pendingKeys[pendingCount] = index << SEQUENCE_BITS | pendingCount;
+        pendingOld[pendingCount] = (byte) previous;
+        pendingCount++;
+    }
+
+    /**
+     * Record a row span about to be overwritten (called by the grid)
+     */
+    void recordRow(int y, int x, byte[] previous, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            record(x + i, y, previous[offset + i]);
+        }
+    }
+
+    private boolean move(ArrayDeque<byte[]> from, ArrayDeque<byte[]> to, boolean restoreOld) {
+        if (depth > 0) {
+            throw new IllegalStateException("Operation in progress");
+        }
+        byte[] operation = from.pollLast();
+        if (operation == null) return false;
+        apply(operation, restoreOld);
+        to.addLast(operation);
+        return true;
+    }
+
+    /**
+     * Sort the pending tiles, keep each tile's first old value against its
+     * current value, and encode the changes as runs:
+     * varint gap from the previous run, varint length, old byte, new byte.
+     * Returns null if the operation left every tile as it was.
+     */
+    private byte[] encodePending() {
+        if (pendingCount == 0) return null;
+        Arrays.sort(pendingKeys, 0, pendingCount);
+
+        int width = grid.getWidth();
+        ByteSink out = new ByteSink();
+        long previousEnd = 0;
+        long runStart = -1;
+        int runLength = 0;
+        int runOld = 0;
+        int runNew = 0;
+
+        int i = 0;
+        while (i < pendingCount) {
+            long index = pendingKeys[i] >>> SEQUENCE_BITS;
+            // The lowest sequence number is the value before the operation
+            int oldValue = pendingOld[(int) (pendingKeys[i] & ((1 << SEQUENCE_BITS) - 1))];
+            while (i < pendingCount && pendingKeys[i] >>> SEQUENCE_BITS == index) i++;
+
+            int newValue = grid.getOrdinal((int) (index % width), (int) (index / width));
+            if (newValue == oldValue) continue;
+
+            if (runLength > 0 && index == runStart + runLength && oldValue == runOld && newValue == runNew) {
+                runLength++;
+                continue;
+            }
+            if (runLength > 0) {
+                out.writeRun(runStart - previousEnd, runLength, runOld, runNew);
+                previousEnd = runStart + runLength;
+            }
+            runStart = index;
+            runLength = 1;
+            runOld = oldValue;
+            runNew = newValue;
+        }
+        if (runLength == 0) return null;
+        out.writeRun(runStart - previousEnd, runLength, runOld, runNew);
+        return out.toByteArray();
+    }
+
+    private void apply(byte[] operation, boolean restoreOld) {
+        int width = grid.getWidth();
+        long position = 0;
+        int offset = 0;
+        long[] value = new long[1];
+
+        while (offset < operation.length) {
+            offset = readVarLong(operation, offset, value);
+            long index = position + value[0];
+            offset = readVarLong(operation, offset, value);
+            long length = value[0];
+            BiomeType type = BiomeType.fromOrdinal(operation[restoreOld ? offset : offset + 1]);
+            offset += 2;
+            position = index + length;
+
+            // Split the run at row ends; the grid marks only those rows dirty
+            while (length > 0) {
+                int x = (int) (index % width);
+                int y = (int) (index / width);
+                int span = (int) Math.min(length, width - x);
+                grid.fillRowSpan(y, x, x + span - 1, type);
+                index += span;
+                length -= span;
+            }
+        }
+    }
+
+    private static int readVarLong(byte[] data, int offset, long[] result) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data[offset++];
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        result[0] = value;
+        return offset;
+    }
+
+    /**
+     * Growable byte buffer for encoding runs
+     */
+    private static class ByteSink {
+        private byte[] data = new byte[32];
+        private int size;
+
+        void writeRun(long gap, long length, int oldValue, int newValue) {
+            writeVarLong(gap);
+            writeVarLong(length);
+            write(oldValue);
+            write(newValue);
+        }
+
+        private void writeVarLong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        private void write(int b) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, size * 2);
+            }
+            data[size++] = (byte) b;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(data, size);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.biobox.core;
+
+/**
+ * Everything besides the world type and size that a generated world
+ * depends on: the seed, the sea level and the biome rules. Taken from a
+ * {@link BiomeGenerator} with {@link BiomeGenerator#getParameters()} when a
+ * generation starts, so a worker can run it while the generator's settings
+ * change (e.g. a sea level slider being dragged on the render thread), and
+ * a memoizing {@link GenerationPipeline} hashes the values its stages
+ * actually ran with.
+ */
+public final class GenerationParameters {
+    private final int seed;
+    private final float seaLevel;
+    private final BiomeRules rules;
+
+    public GenerationParameters(int seed, float seaLevel, BiomeRules rules) {
+        if (seed <= 0) {
+            throw new IllegalArgumentException("Seed must be positive: " + seed);
+        }
+        if (rules == null) {
+            throw new IllegalArgumentException("No biome rules");
+        }
+        this.seed = seed;
+        this.seaLevel = seaLevel;
+        this.rules = rules;
+    }
+
+    public int getSeed() {
+        return seed;
+    }
+
+    public float getSeaLevel() {
+        return seaLevel;
+    }
+
+    public BiomeRules getRules() {
+        return rules;
+    }
+
+    /**
+     * Hash of the rules worlds of a type are classified with (see
+     * {@link BiomeGenerator#getRulesHash}); 0 for islands, which don't use
+     * them
+     */
+    public long getRulesHash(BiomeGenerator.WorldType type) {
+        if (!BiomeGenerator.supportsLayers(type)) return 0;
+        return rules.getTable(type).getContentHash();
+    }
+
+    @Override
+    public String toString() {
+        return "seed " + seed + ", sea level " + seaLevel;
+    }
+}
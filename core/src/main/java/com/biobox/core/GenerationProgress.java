@@ -0,0 +1,73 @@
+package com.biobox.core;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Progress of one world generation running on another thread, and the
+ * switch to cancel it. The generator reports the stage it is in and how far
+ * along the whole generation is; the UI reads both each frame to draw a
+ * progress bar, and may cancel at any time. Cancellation takes effect at the
+ * next report, which throws a {@link CancellationException} out of the
+ * generator.
+ */
+public class GenerationProgress {
+
+    public enum Stage {
+        STARTING("Starting"),
+        PREVIEWING("Previewing"),
+        CLASSIFYING("Classifying terrain"),
+        SHAPING_ISLANDS("Shaping islands"),
+        SHAPING_COASTS("Shaping coasts"),
+        ADDING_FEATURES("Adding features"),
+        FINISHING("Finishing"),
+        DONE("Done");
+
+        private final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    private volatile Stage stage = Stage.STARTING;
+    private volatile float fraction;
+    private volatile boolean cancelled;
+
+    public Stage getStage() {
+        return stage;
+    }
+
+    /**
+     * How much of the whole generation is done, from 0 to 1
+     */
+    public float getFraction() {
+        return fraction;
+    }
+
+    /**
+     * Ask the generation to stop. Its grid is left half-written.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Report progress (called by the generator). Throws a
+     * CancellationException if the generation was cancelled.
+     */
+    void report(Stage stage, float fraction) {
+        if (cancelled) {
+            throw new CancellationException("World generation cancelled");
+        }
+        this.stage = stage;
+        this.fraction = fraction;
+    }
+}
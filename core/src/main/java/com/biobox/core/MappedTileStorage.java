@@ -0,0 +1,329 @@
+package com.biobox.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.WeakReference;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Tile storage kept in a memory-mapped file instead of the Java heap, for
+ * worlds too large to hold in memory. The file is laid out chunk by chunk
+ * (64x64 tiles, one page each) and mapped one row of chunks at a time as
+ * tiles in it are touched, leaving paging to the operating system.
+ *
+ * A stored byte of 0 means "the fill biome", so a new world is a sparse file
+ * and costs nothing until it is written. Reopening a world only reads the
+ * header.
+ *
+ * {@link BiomeGenerator#generateWorld(SquareGrid, BiomeGenerator.WorldType)}
+ * works on such worlds a few stripes of rows at a time, so their size is
+ * bounded by the disk, not the heap. Whatever keeps something per tile on
+ * the heap does not scale with them: the layers of a memoizing
+ * {@link GenerationPipeline}, occupancy bitmaps of the histogram, or a
+ * full-size image of the world.
+ *
+ * Snapshots live on the heap but copy only what they must: they read
+ * unchanged chunks through the file, and the first write to a chunk after a
+ * snapshot copies its old tiles into the snapshots first, much like the
+ * copy-on-write of {@link ChunkedTileStorage}. Snapshots therefore cost
+ * memory in proportion to what is written after them, and must not be used
+ * after the storage is closed.
+ */
+public class MappedTileStorage implements TileStorage, Closeable {
+    private static final int MAGIC = 0x42494F4D; // "BIOM"
+    private static final int VERSION = 1;
+    private static final int DATA_OFFSET = 4096; // Header padded to a page
+
+    private static final int CHUNK_SHIFT = ChunkedTileStorage.CHUNK_SHIFT;
+    private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+    private static final int CHUNK_BYTES = 1 << (CHUNK_SHIFT * 2);
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int width;
+    private final int height;
+    private final int chunksX;
+    private final int fillOrdinal;
+
+    // One mapping per row of chunks, created on first access
+    private final MappedByteBuffer[] bands;
+
+    // Snapshots that may still read chunks through the file
+    private final List<WeakReference<Snapshot>> snapshots = new ArrayList<>();
+    // Chunks every snapshot taken so far already holds a copy of
+    private final boolean[] preserved;
+
+    private MappedTileStorage(RandomAccessFile file, int width, int height, int fillOrdinal) {
+        this.file = file;
+        this.channel = file.getChannel();
+        this.width = width;
+        this.height = height;
+        this.chunksX = (width + CHUNK_MASK) >> CHUNK_SHIFT;
+        this.fillOrdinal = fillOrdinal;
+        this.bands = new MappedByteBuffer[(height + CHUNK_MASK) >> CHUNK_SHIFT];
+        this.preserved = new boolean[chunksX * bands.length];
+    }
+
+    /**
+     * Create a new world file filled with a single biome, replacing any
+     * existing file
+     */
+    public static MappedTileStorage create(File path, int width, int height, BiomeType fill) throws IOException {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid world size: " + width + "x" + height);
+        }
+        RandomAccessFile file = new RandomAccessFile(path, "rw");
+        try {
+            // Truncate first so no old tile data survives, then size it sparse
+            file.setLength(0);
+            file.writeInt(MAGIC);
+            file.writeInt(VERSION);
+            file.writeInt(width);
+            file.writeInt(height);
+            file.writeInt(CHUNK_SHIFT);
+            file.writeInt(fill.ordinal());
+            file.setLength(fileLength(width, height));
+
+            return new MappedTileStorage(file, width, height, fill.ordinal());
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Open an existing world file
+     */
+    public static MappedTileStorage open(File path) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(path, "rw");
+        try {
+            if (file.length() < DATA_OFFSET || file.readInt() != MAGIC) {
+                throw new IOException("Not a mapped world file: " + path);
+            }
+            int version = file.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported mapped world version " + version + ": " + path);
+            }
+            int width = file.readInt();
+            int height = file.readInt();
+            int chunkShift = file.readInt();
+            int fillOrdinal = file.readInt();
+            if (chunkShift != CHUNK_SHIFT) {
+                throw new IOException("Unsupported chunk size in " + path);
+            }
+            if (width <= 0 || height <= 0) {
+                throw new IOException("Invalid world size " + width + "x" + height + ": " + path);
+            }
+            // Mapping past the end would fail later, far from the cause
+            if (file.length() < fileLength(width, height)) {
+                throw new IOException("Truncated mapped world file (" + file.length() + " bytes, " +
+                    width + "x" + height + " needs " + fileLength(width, height) + "): " + path);
+            }
+
+            return new MappedTileStorage(file, width, height, fillOrdinal);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Size of the file of a width x height world: the header page plus
+     * every chunk
+     */
+    private static long fileLength(int width, int height) {
+        long chunksX = (width + CHUNK_MASK) >> CHUNK_SHIFT;
+        long chunksY = (height + CHUNK_MASK) >> CHUNK_SHIFT;
+        return DATA_OFFSET + chunksX * chunksY * CHUNK_BYTES;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public int get(int x, int y) {
+        int stored = band(y >> CHUNK_SHIFT).get(offsetInBand(x, y));
+        return stored == 0 ? fillOrdinal : stored - 1;
+    }
+
+    @Override
+    public void set(int x, int y, int ordinal) {
+        if (!snapshots.isEmpty()) {
+            int chunk = (y >> CHUNK_SHIFT) * chunksX + (x >> CHUNK_SHIFT);
+            if (!preserved[chunk]) {
+                preserve(chunk);
+            }
+        }
+        band(y >> CHUNK_SHIFT).put(offsetInBand(x, y), (byte) (ordinal + 1));
+    }
+
+    /**
+     * Take a snapshot that copies nothing yet; see the class comment
+     */
+    @Override
+    public TileStorage snapshot() {
+        return register(new Snapshot(this, new byte[preserved.length][]));
+    }
+
+    private Snapshot register(Snapshot snapshot) {
+        snapshots.add(new WeakReference<>(snapshot));
+        Arrays.fill(preserved, false);
+        return snapshot;
+    }
+
+    /**
+     * Hand a chunk's current tiles to every snapshot still reading it from
+     * the file, before it is overwritten
+     */
+    private void preserve(int chunk) {
+        byte[] tiles = null;
+        Iterator<WeakReference<Snapshot>> references = snapshots.iterator();
+        while (references.hasNext()) {
+            Snapshot snapshot = references.next().get();
+            if (snapshot == null) {
+                references.remove();
+                continue;
+            }
+            if (snapshot.chunks[chunk] == null) {
+                if (tiles == null) {
+                    tiles = readChunk(chunk);
+                }
+                // Possibly handed to several snapshots; they clone it to write
+                snapshot.chunks[chunk] = tiles;
+                snapshot.shared[chunk] = true;
+            }
+        }
+        preserved[chunk] = true;
+    }
+
+    /**
+     * Copy a chunk's tiles out of the file, row-major, as biome ordinals
+     */
+    private byte[] readChunk(int chunk) {
+        MappedByteBuffer band = band(chunk / chunksX);
+        int start = (chunk % chunksX) << (CHUNK_SHIFT * 2);
+        byte[] tiles = new byte[CHUNK_BYTES];
+        for (int i = 0; i < CHUNK_BYTES; i++) {
+            int stored = band.get(start + i);
+            tiles[i] = (byte) (stored == 0 ? fillOrdinal : stored - 1);
+        }
+        return tiles;
+    }
+
+    private int offsetInBand(int x, int y) {
+        return ((x >> CHUNK_SHIFT) << (CHUNK_SHIFT * 2)) | ((y & CHUNK_MASK) << CHUNK_SHIFT) | (x & CHUNK_MASK);
+    }
+
+    private MappedByteBuffer band(int chunkY) {
+        MappedByteBuffer band = bands[chunkY];
+        if (band == null) {
+            long bandBytes = (long) chunksX * CHUNK_BYTES;
+            try {
+                band = channel.map(FileChannel.MapMode.READ_WRITE, DATA_OFFSET + chunkY * bandBytes, bandBytes);
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not map world file region", e);
+            }
+            bands[chunkY] = band;
+        }
+        return band;
+    }
+
+    /**
+     * Write modified tiles back to the file
+     */
+    public void flush() {
+        for (MappedByteBuffer band : bands) {
+            if (band != null) band.force();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        channel.close();
+        file.close();
+    }
+
+    /**
+     * A snapshot of a mapped world: chunks written on either side since it
+     * was taken are held here, the rest are read from the file
+     */
+    private static class Snapshot implements TileStorage {
+        private final MappedTileStorage source;
+        // Row-major ordinals of the chunks held here, null for those in the file
+        private final byte[][] chunks;
+        // Chunks whose array another snapshot also holds
+        private final boolean[] shared;
+
+        Snapshot(MappedTileStorage source, byte[][] chunks) {
+            this.source = source;
+            this.chunks = chunks;
+            this.shared = new boolean[chunks.length];
+        }
+
+        @Override
+        public int getWidth() {
+            return source.width;
+        }
+
+        @Override
+        public int getHeight() {
+            return source.height;
+        }
+
+        @Override
+        public int get(int x, int y) {
+            byte[] tiles = chunks[(y >> CHUNK_SHIFT) * source.chunksX + (x >> CHUNK_SHIFT)];
+            if (tiles == null) {
+                // Unchanged since the snapshot, or it would have been preserved
+                return source.get(x, y);
+            }
+            return tiles[((y & CHUNK_MASK) << CHUNK_SHIFT) | (x & CHUNK_MASK)];
+        }
+
+        @Override
+        public void set(int x, int y, int ordinal) {
+            int chunk = (y >> CHUNK_SHIFT) * source.chunksX + (x >> CHUNK_SHIFT);
+            byte[] tiles = chunks[chunk];
+            if (tiles == null) {
+                tiles = source.readChunk(chunk);
+                chunks[chunk] = tiles;
+            } else if (shared[chunk]) {
+                tiles = tiles.clone();
+                chunks[chunk] = tiles;
+                shared[chunk] = false;
+            }
+            tiles[((y & CHUNK_MASK) << CHUNK_SHIFT) | (x & CHUNK_MASK)] = (byte) ordinal;
+        }
+
+        /**
+         * Share the chunks held here and, like any snapshot, whatever is
+         * still in the file
+         */
+        @Override
+        public TileStorage snapshot() {
+            Snapshot snapshot = new Snapshot(source, chunks.clone());
+            for (int chunk = 0; chunk < chunks.length; chunk++) {
+                if (chunks[chunk] != null) {
+                    shared[chunk] = true;
+                    snapshot.shared[chunk] = true;
+                }
+            }
+            return source.register(snapshot);
+        }
+    }
+}
@@ -0,0 +1,362 @@
+package com.biobox.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An endless world generated chunk by chunk around whatever is being looked
+ * at. Only a bounded set of chunks is resident: missing chunks near the view
+ * are generated on worker threads, and the least recently viewed ones are
+ * evicted once there are too many. Edited chunks are written to a save
+ * directory when evicted (if one is given) and read back instead of being
+ * regenerated, so memory and generation cost follow the view, not the
+ * world's size.
+ *
+ * Everything except the generation itself happens on the thread that calls
+ * {@link #update}, normally the render thread.
+ */
+public class StreamingWorld {
+    public static final int CHUNK_SIZE = ChunkedTileStorage.CHUNK_SIZE;
+    private static final int CHUNK_SHIFT = ChunkedTileStorage.CHUNK_SHIFT;
+
+    /**
+     * One resident square of the world
+     */
+    public static class Chunk {
+        private final int chunkX;
+        private final int chunkY;
+        private final SquareGrid tiles;
+        // Changed since it was generated or last saved
+        private boolean edited;
+
+        Chunk(int chunkX, int chunkY, SquareGrid tiles) {
+            this.chunkX = chunkX;
+            this.chunkY = chunkY;
+            this.tiles = tiles;
+        }
+
+        public int getChunkX() {
+            return chunkX;
+        }
+
+        public int getChunkY() {
+            return chunkY;
+        }
+
+        /**
+         * The chunk's tiles, at (x - chunkX * CHUNK_SIZE, y - chunkY * CHUNK_SIZE)
+         */
+        public SquareGrid getTiles() {
+            return tiles;
+        }
+
+        public boolean isEdited() {
+            return edited;
+        }
+    }
+
+    private final BiomeGenerator generator;
+    private final BiomeGenerator.WorldType type;
+    private final int maxResidentChunks;
+    private final File saveDirectory;
+    private final ExecutorService workers;
+    // Saves run one at a time and in order, so a newer save always wins
+    private final ExecutorService saver;
+
+    // Access-ordered, so iteration starts at the least recently viewed chunk
+    private final LinkedHashMap<Long, Chunk> resident = new LinkedHashMap<>(64, 0.75f, true);
+    // Chunks queued or being generated; removed to cancel a queued one
+    private final ConcurrentMap<Long, Boolean> requested = new ConcurrentHashMap<>();
+    // Finished by the workers, waiting to become resident
+    private final ConcurrentLinkedQueue<Chunk> completed = new ConcurrentLinkedQueue<>();
+    // Evicted edits not yet on disk; a chunk found here is revived, not loaded
+    private final ConcurrentMap<Long, SquareGrid> unsaved = new ConcurrentHashMap<>();
+    private volatile RuntimeException failure;
+
+    /**
+     * @param generator         used for every chunk; don't change its seed
+     *                          while the world is in use
+     * @param maxResidentChunks chunks kept in memory (the visible ones are
+     *                          always kept, even beyond this)
+     * @param saveDirectory     where edited chunks are kept when evicted, or
+     *                          null to drop edits with the chunk
+     * @param threads           worker threads generating chunks
+     */
+    public StreamingWorld(BiomeGenerator generator, BiomeGenerator.WorldType type,
+                          int maxResidentChunks, File saveDirectory, int threads) {
+        if (!BiomeGenerator.supportsChunks(type)) {
+            throw new IllegalArgumentException(type + " worlds can't be streamed");
+        }
+        if (maxResidentChunks < 1 || threads < 1) {
+            throw new IllegalArgumentException("Need at least one resident chunk and one thread");
+        }
+        this.generator = generator;
+        this.type = type;
+        this.maxResidentChunks = maxResidentChunks;
+        this.saveDirectory = saveDirectory;
+        this.workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "chunk-generator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.saver = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "chunk-saver");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Bring the world in line with the view, given as a rectangle of tile
+     * coordinates (both corners inclusive): take in finished chunks, request
+     * missing ones nearest the centre first, cancel requests that went out of
+     * view and evict chunks beyond the budget. Call once per frame. A failure
+     * on a worker is rethrown here.
+     */
+    public void update(int minX, int minY, int maxX, int maxY) {
+        RuntimeException error = failure;
+        if (error != null) {
+            failure = null;
+            throw new RuntimeException("Chunk generation failed", error);
+        }
+
+        Chunk chunk;
+        while ((chunk = completed.poll()) != null) {
+            long key = key(chunk.chunkX, chunk.chunkY);
+            requested.remove(key);
+            // A chunk dropped and requested again can finish twice; the
+            // copy already resident may have been edited since, so keep it
+            // (containsKey rather than putIfAbsent, which Android lacks
+            // before API 24)
+            if (!resident.containsKey(key)) {
+                resident.put(key, chunk);
+            }
+        }
+
+        // One chunk of margin, so panning finds its neighbours ready
+        int minChunkX = (minX >> CHUNK_SHIFT) - 1;
+        int minChunkY = (minY >> CHUNK_SHIFT) - 1;
+        int maxChunkX = (maxX >> CHUNK_SHIFT) + 1;
+        int maxChunkY = (maxY >> CHUNK_SHIFT) + 1;
+
+        // Queued chunks that are no longer wanted are skipped by the workers
+        for (Long key : requested.keySet()) {
+            int chunkX = (int) (key >> 32);
+            int chunkY = (int) (long) key;
+            if (chunkX < minChunkX || chunkX > maxChunkX || chunkY < minChunkY || chunkY > maxChunkY) {
+                requested.remove(key);
+            }
+        }
+
+        List<long[]> missing = new ArrayList<>();
+        for (int chunkY = minChunkY; chunkY <= maxChunkY; chunkY++) {
+            for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+                long key = key(chunkX, chunkY);
+                // Looking a chunk up marks it as recently viewed
+                if (resident.get(key) != null || requested.containsKey(key)) continue;
+
+                SquareGrid revived = unsaved.get(key);
+                if (revived != null) {
+                    Chunk restored = new Chunk(chunkX, chunkY, new SquareGrid(revived.getStorage().snapshot()));
+                    restored.edited = true;
+                    resident.put(key, restored);
+                    continue;
+                }
+                long dx = chunkX - (minChunkX + maxChunkX) / 2;
+                long dy = chunkY - (minChunkY + maxChunkY) / 2;
+                missing.add(new long[] {dx * dx + dy * dy, chunkX, chunkY});
+            }
+        }
+        Collections.sort(missing, (a, b) -> Long.compare(a[0], b[0]));
+        for (long[] entry : missing) {
+            request((int) entry[1], (int) entry[2]);
+        }
+
+        int viewChunks = (maxChunkX - minChunkX + 1) * (maxChunkY - minChunkY + 1);
+        evict(Math.max(maxResidentChunks, viewChunks), minChunkX, minChunkY, maxChunkX, maxChunkY);
+    }
+
+    /**
+     * The resident chunk at chunk coordinates, or null if it isn't loaded
+     */
+    public Chunk getChunk(int chunkX, int chunkY) {
+        return resident.get(key(chunkX, chunkY));
+    }
+
+    /**
+     * Biome at world tile coordinates, or null while its chunk isn't loaded
+     */
+    public BiomeType getTile(int x, int y) {
+        Chunk chunk = getChunk(x >> CHUNK_SHIFT, y >> CHUNK_SHIFT);
+        if (chunk == null) return null;
+        return chunk.tiles.getTile(x & (CHUNK_SIZE - 1), y & (CHUNK_SIZE - 1));
+    }
+
+    /**
+     * Change a tile. Returns false (changing nothing) while its chunk isn't
+     * loaded.
+     */
+    public boolean setTile(int x, int y, BiomeType type) {
+        Chunk chunk = getChunk(x >> CHUNK_SHIFT, y >> CHUNK_SHIFT);
+        if (chunk == null) return false;
+        int localX = x & (CHUNK_SIZE - 1);
+        int localY = y & (CHUNK_SIZE - 1);
+        if (chunk.tiles.getOrdinal(localX, localY) != type.ordinal()) {
+            chunk.tiles.setTile(localX, localY, type);
+            chunk.edited = true;
+        }
+        return true;
+    }
+
+    public BiomeGenerator.WorldType getWorldType() {
+        return type;
+    }
+
+    public int getResidentCount() {
+        return resident.size();
+    }
+
+    /**
+     * Chunks requested but not yet resident
+     */
+    public int getPendingCount() {
+        return requested.size();
+    }
+
+    /**
+     * Save edited chunks and stop the worker threads. Waits a few seconds at
+     * most for the saves to reach the disk.
+     */
+    public void dispose() {
+        workers.shutdownNow();
+        for (Map.Entry<Long, Chunk> entry : resident.entrySet()) {
+            if (entry.getValue().edited) {
+                save(entry.getKey(), entry.getValue());
+            }
+        }
+        resident.clear();
+        
+        saver.shutdown();
+        try {
+            saver.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void request(int chunkX, int chunkY) {
+        long key = key(chunkX, chunkY);
+        requested.put(key, Boolean.TRUE);
+        workers.execute(() -> {
+            // Went out of view while queued
+            if (!requested.containsKey(key)) return;
+            try {
+                SquareGrid tiles = new SquareGrid(new PackedTileStorage(CHUNK_SIZE, CHUNK_SIZE, BiomeType.GRASS));
+                if (!readSaved(chunkX, chunkY, tiles)) {
+                    generator.generateChunk(tiles, chunkX * CHUNK_SIZE, chunkY * CHUNK_SIZE, type);
+                }
+                completed.add(new Chunk(chunkX, chunkY, tiles));
+            } catch (RuntimeException e) {
+                requested.remove(key);
+                failure = e;
+            }
+        });
+    }
+
+    private void evict(int budget, int minChunkX, int minChunkY, int maxChunkX, int maxChunkY) {
+        Iterator<Map.Entry<Long, Chunk>> oldest = resident.entrySet().iterator();
+        while (resident.size() > budget && oldest.hasNext()) {
+            Map.Entry<Long, Chunk> entry = oldest.next();
+            Chunk chunk = entry.getValue();
+            if (chunk.chunkX >= minChunkX && chunk.chunkX <= maxChunkX &&
+                    chunk.chunkY >= minChunkY && chunk.chunkY <= maxChunkY) {
+                continue;
+            }
+            oldest.remove();
+            if (chunk.edited) {
+                save(entry.getKey(), chunk);
+            }
+        }
+    }
+
+    /**
+     * Write an edited chunk on the saver thread. Until that is done the
+     * chunk stays in {@link #unsaved}, so requesting it again revives it
+     * instead of reading a stale or half-written file.
+     */
+    private void save(long key, Chunk chunk) {
+        if (saveDirectory == null) return;
+
+        SquareGrid copy = new SquareGrid(chunk.tiles.getStorage().snapshot());
+        unsaved.put(key, copy);
+        saver.execute(() -> {
+            writeSaved(chunk.chunkX, chunk.chunkY, copy);
+            unsaved.remove(key, copy);
+        });
+    }
+
+    private void writeSaved(int chunkX, int chunkY, SquareGrid tiles) {
+        File file = chunkFile(chunkX, chunkY);
+        File partial = new File(saveDirectory, file.getName() + ".tmp");
+        saveDirectory.mkdirs();
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(partial)))) {
+            RleTileStorage.encode(tiles.getStorage()).writeTo(out);
+        } catch (IOException e) {
+            System.err.println("Could not save chunk " + chunkX + "," + chunkY + ": " + e.getMessage());
+            partial.delete();
+            return;
+        }
+        // renameTo doesn't replace an existing file everywhere
+        file.delete();
+        if (!partial.renameTo(file)) {
+            partial.delete();
+        }
+    }
+
+    private boolean readSaved(int chunkX, int chunkY, SquareGrid target) {
+        if (saveDirectory == null) return false;
+
+        File file = chunkFile(chunkX, chunkY);
+        if (!file.exists()) return false;
+
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            RleTileStorage saved = RleTileStorage.readFrom(in);
+            if (saved.getWidth() != CHUNK_SIZE || saved.getHeight() != CHUNK_SIZE) {
+                throw new IOException("Unexpected size " + saved.getWidth() + "x" + saved.getHeight());
+            }
+            target.pasteRegion(new SquareGrid(saved).copyRegion(0, 0, CHUNK_SIZE, CHUNK_SIZE), 0, 0);
+            return true;
+        } catch (IOException e) {
+            System.err.println("Could not read chunk " + chunkX + "," + chunkY + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    private File chunkFile(int chunkX, int chunkY) {
+        return new File(saveDirectory, "chunk_" + chunkX + "_" + chunkY + ".rle");
+    }
+
+    private static long key(int chunkX, int chunkY) {
+        return ((long) chunkX << 32) | (chunkY & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,292 @@
+package com.biobox.core;
+
+import com.badlogic.gdx.Gdx;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of generated worlds keyed by everything that determines them
+ * (seed, world type, size, generator version and biome rules), so
+ * revisiting a seed
+ * copies tiles instead of regenerating them.
+ *
+ * Worlds are held packed (one byte per tile) in memory, least recently used
+ * first out once the memory budget is exceeded. Evicted worlds are spilled
+ * run-length encoded to a directory, if one is given, and read back from
+ * there on a later hit. The directory has a budget of its own: once its
+ * files exceed it, the least recently used ones are deleted. Safe to use
+ * from the generation thread and the render thread at once.
+ */
+public class WorldCache {
+
+    /**
+     * Identifies one generated world
+     */
+    public static final class Key {
+        private final int seed;
+        private final BiomeGenerator.WorldType type;
+        private final int width;
+        private final int height;
+        private final int version;
+        // Hash of the biome rules the world was classified with (see
+        // BiomeGenerator#getRulesHash), so retuned rules miss
+        private final long rulesHash;
+
+        public Key(int seed, BiomeGenerator.WorldType type, int width, int height, long rulesHash) {
+            this(seed, type, width, height, BiomeGenerator.VERSION, rulesHash);
+        }
+
+        public Key(int seed, BiomeGenerator.WorldType type, int width, int height, int version, long rulesHash) {
+            this.seed = seed;
+            this.type = type;
+            this.width = width;
+            this.height = height;
+            this.version = version;
+            this.rulesHash = rulesHash;
+        }
+
+        public int getSeed() {
+            return seed;
+        }
+
+        public BiomeGenerator.WorldType getType() {
+            return type;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) return true;
+            if (!(other instanceof Key)) return false;
+            Key key = (Key) other;
+            return seed == key.seed && type == key.type && width == key.width &&
+                height == key.height && version == key.version && rulesHash == key.rulesHash;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = seed;
+            hash = 31 * hash + type.hashCode();
+            hash = 31 * hash + width;
+            hash = 31 * hash + height;
+            hash = 31 * hash + version;
+            return 31 * hash + Long.hashCode(rulesHash);
+        }
+
+        String getFileName() {
+            return "world-" + type.name().toLowerCase() + "-" + seed + "-" +
+                width + "x" + height + "-v" + version + "-" + Long.toHexString(rulesHash) + ".rle";
+        }
+
+        @Override
+        public String toString() {
+            return type + " seed " + seed + " " + width + "x" + height + " v" + version;
+        }
+    }
+
+    private final long memoryBudget;
+    private final File spillDirectory;
+    private final long spillBudget;
+    // Held while touching the spill directory, apart from the lock on the
+    // worlds in memory so lookups don't wait on the disk
+    private final Object spillLock = new Object();
+
+    // Access-ordered, so iteration starts at the least recently used world
+    private final LinkedHashMap<Key, GridRegion> worlds = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryUsed;
+
+    /**
+     * @param spillDirectory where evicted worlds are written, or null to
+     *                       simply drop them
+     * @param spillBudget    bytes of spilled worlds kept in the directory
+     */
+    public WorldCache(long memoryBudget, File spillDirectory, long spillBudget) {
+        if (memoryBudget <= 0) {
+            throw new IllegalArgumentException("Memory budget must be positive: " + memoryBudget);
+        }
+        if (spillDirectory != null && spillBudget <= 0) {
+            throw new IllegalArgumentException("Spill budget must be positive: " + spillBudget);
+        }
+        this.memoryBudget = memoryBudget;
+        this.spillDirectory = spillDirectory;
+        this.spillBudget = spillBudget;
+    }
+
+    /**
+     * Copy a cached world into the grid. Returns false (leaving the grid
+     * untouched) if the world is neither in memory nor spilled to disk.
+     */
+    public boolean load(Key key, SquareGrid target) {
+        if (target.getWidth() != key.width || target.getHeight() != key.height) {
+            throw new IllegalArgumentException("Grid size differs from " + key);
+        }
+
+        GridRegion world;
+        synchronized (this) {
+            world = worlds.get(key);
+        }
+        if (world == null) {
+            world = readSpilled(key);
+            if (world == null) return false;
+            put(key, world);
+        }
+
+        target.pasteRegion(world, 0, 0);
+        return true;
+    }
+
+    /**
+     * Remember the grid's current tiles as the world for this key
+     */
+    public void store(Key key, SquareGrid source) {
+        if (source.getWidth() != key.width || source.getHeight() != key.height) {
+            throw new IllegalArgumentException("Grid size differs from " + key);
+        }
+        put(key, source.copyRegion(0, 0, key.width, key.height));
+    }
+
+    public synchronized boolean isInMemory(Key key) {
+        return worlds.containsKey(key);
+    }
+
+    /**
+     * Bytes of tiles currently held in memory
+     */
+    public synchronized long getMemoryUsed() {
+        return memoryUsed;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    private void put(Key key, GridRegion world) {
+        Map<Key, GridRegion> evicted = new LinkedHashMap<>();
+        synchronized (this) {
+            GridRegion previous = worlds.put(key, world);
+            if (previous != null) {
+                memoryUsed -= size(previous);
+            }
+            memoryUsed += size(world);
+
+            Iterator<Map.Entry<Key, GridRegion>> oldest = worlds.entrySet().iterator();
+            while (memoryUsed > memoryBudget && oldest.hasNext()) {
+                Map.Entry<Key, GridRegion> entry = oldest.next();
+                memoryUsed -= size(entry.getValue());
+                evicted.put(entry.getKey(), entry.getValue());
+                oldest.remove();
+            }
+        }
+
+        // Write outside the lock so lookups don't wait on the disk
+        for (Map.Entry<Key, GridRegion> entry : evicted.entrySet()) {
+            spill(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void spill(Key key, GridRegion world) {
+        if (spillDirectory == null) return;
+
+        synchronized (spillLock) {
+            File file = new File(spillDirectory, key.getFileName());
+            if (file.exists()) {
+                // Spilled before and read back since; now recently used again
+                file.setLastModified(System.currentTimeMillis());
+                return;
+            }
+
+            spillDirectory.mkdirs();
+            File partial = new File(spillDirectory, key.getFileName() + ".tmp");
+            RleTileStorage encoded = RleTileStorage.encode(
+                new PackedTileStorage(world.getWidth(), world.getHeight(), world.getTiles()));
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(partial)))) {
+                encoded.writeTo(out);
+            } catch (IOException e) {
+                // The cache is only an optimisation; the world can be regenerated
+                logError("Could not spill " + key, e);
+                partial.delete();
+                return;
+            }
+            if (!partial.renameTo(file)) {
+                partial.delete();
+                return;
+            }
+            prune();
+        }
+    }
+
+    /**
+     * Delete the least recently used spilled worlds (by modification time)
+     * until the rest fit the spill budget. This also clears out worlds of
+     * older generator versions or rules, which are never read again.
+     */
+    private void prune() {
+        File[] files = spillDirectory.listFiles((directory, name) ->
+            name.startsWith("world-") && name.endsWith(".rle"));
+        if (files == null) return;
+
+        long used = 0;
+        for (File file : files) {
+            used += file.length();
+        }
+        if (used <= spillBudget) return;
+
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (int i = 0; i < files.length && used > spillBudget; i++) {
+            long length = files[i].length();
+            if (files[i].delete()) {
+                used -= length;
+            }
+        }
+    }
+
+    private GridRegion readSpilled(Key key) {
+        if (spillDirectory == null) return null;
+
+        synchronized (spillLock) {
+            File file = new File(spillDirectory, key.getFileName());
+            if (!file.exists()) return null;
+
+            try (DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file)))) {
+                RleTileStorage decoded = RleTileStorage.readFrom(in);
+                if (decoded.getWidth() != key.width || decoded.getHeight() != key.height) {
+                    throw new IOException("Unexpected size " + decoded.getWidth() + "x" + decoded.getHeight());
+                }
+                file.setLastModified(System.currentTimeMillis());
+                return new SquareGrid(decoded).copyRegion(0, 0, key.width, key.height);
+            } catch (IOException e) {
+                logError("Could not read spilled " + key, e);
+                file.delete();
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Report a failure through the application's log, or to standard error
+     * when no application is running (e.g. in the batch tools)
+     */
+    private static void logError(String message, IOException e) {
+        if (Gdx.app != null) {
+            Gdx.app.error("WorldCache", message, e);
+        } else {
+            System.err.println(message + ": " + e.getMessage());
+        }
+    }
+
+    private static long size(GridRegion world) {
+        return (long) world.getWidth() * world.getHeight();
+    }
+}
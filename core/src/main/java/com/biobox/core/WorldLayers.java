@@ -0,0 +1,64 @@
+package com.biobox.core;
+
+/**
+ * The inputs a world was classified from, kept per tile so the world can be
+ * classified again (e.g. at another sea level) without sampling any noise:
+ * height, biome variation, and a climate layer whose meaning depends on the
+ * world type (latitude for continents, moisture for pangea, volcanic
+ * activity for volcanic worlds, 0 for the rest). See data/biomes.txt.
+ *
+ * Each layer is one float array, row-major, 12 bytes per tile in all.
+ */
+public class WorldLayers {
+    public static final int HEIGHT = 0;
+    public static final int VARIATION = 1;
+    public static final int CLIMATE = 2;
+    public static final int LAYER_COUNT = 3;
+
+    private final int seed;
+    private final BiomeGenerator.WorldType type;
+    private final int width;
+    private final int height;
+    private final float[][] values;
+
+    WorldLayers(int seed, BiomeGenerator.WorldType type, int width, int height) {
+        if ((long) width * height > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Can't keep layers for a " + width + "x" + height + " world");
+        }
+        this.seed = seed;
+        this.type = type;
+        this.width = width;
+        this.height = height;
+        this.values = new float[LAYER_COUNT][width * height];
+    }
+
+    /**
+     * Value of one layer at a tile
+     */
+    public float get(int layer, int x, int y) {
+        return values[layer][y * width + x];
+    }
+
+    /**
+     * Seed of the world the layers belong to
+     */
+    public int getSeed() {
+        return seed;
+    }
+
+    public BiomeGenerator.WorldType getType() {
+        return type;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    float[] getValues(int layer) {
+        return values[layer];
+    }
+}
@@ -0,0 +1,318 @@
+package com.biobox.tools;
+
+import com.biobox.core.BiomeGenerator;
+import com.biobox.core.BiomeHistogram;
+import com.biobox.core.BiomeRules;
+import com.biobox.core.BiomeType;
+import com.biobox.core.MappedTileStorage;
+import com.biobox.core.RleTileStorage;
+import com.biobox.core.SquareGrid;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Generates worlds without a display, for CI and servers: every seed of a
+ * list or range in every requested world type, one world per core at a
+ * time. Each world is written run-length encoded, in the format of
+ * {@link RleTileStorage#writeTo} (the one the world cache spills in),
+ * optionally with a PNG preview, and listed in index.tsv in the output
+ * directory. With --mapped, worlds are instead generated straight into
+ * {@link MappedTileStorage} files, for worlds larger than the heap:
+ * generation and the PNG preview only hold a few rows of them at a time.
+ *
+ * Each worker thread has a generator of its own with a parallelism of 1:
+ * for many small worlds, whole worlds side by side scale better than
+ * splitting every world into stripes.
+ */
+public class WorldBatch {
+    private static final String USAGE =
+        "Usage: WorldBatch --seeds <from-to|a,b,c> [options]\n" +
+        "  --types <all|classic,archipelago,...>  world types (default all)\n" +
+        "  --size <width>x<height>                 world size (default 512x512)\n" +
+        "  --sea-level <offset>                    sea level shift (default 0)\n" +
+        "  --out <directory>                       output directory (default worlds)\n" +
+        "  --png                                   also write PNG previews\n" +
+        "  --mapped                                generate into memory-mapped .map files\n" +
+        "  --threads <n>                           worker threads (default: one per core)";
+
+    // How often to report progress, in worlds
+    private static final int REPORT_INTERVAL = 500;
+
+    private final List<Integer> seeds = new ArrayList<>();
+    private final List<BiomeGenerator.WorldType> types = new ArrayList<>();
+    private int width = 512;
+    private int height = 512;
+    private float seaLevel;
+    private File outputDirectory = new File("worlds");
+    private boolean previews;
+    private boolean mapped;
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    public static void main(String[] args) {
+        // Previews are drawn with ImageIO, which must not look for a display
+        System.setProperty("java.awt.headless", "true");
+
+        if (args.length == 1 && args[0].equals("--help")) {
+            System.out.println(USAGE);
+            return;
+        }
+
+        WorldBatch batch = new WorldBatch();
+        try {
+            batch.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        try {
+            batch.run();
+        } catch (IOException | IllegalStateException e) {
+            System.err.println("World generation failed: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Read the command line. Throws an IllegalArgumentException describing
+     * the first bad option.
+     */
+    void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (option.equals("--png")) {
+                previews = true;
+                continue;
+            }
+            if (option.equals("--mapped")) {
+                mapped = true;
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + option);
+            }
+            String value = args[++i];
+            switch (option) {
+                case "--seeds":
+                    parseSeeds(value);
+                    break;
+                case "--types":
+                    parseTypes(value);
+                    break;
+                case "--size":
+                    parseSize(value);
+                    break;
+                case "--sea-level":
+                    seaLevel = parseFloat(option, value);
+                    break;
+                case "--out":
+                    outputDirectory = new File(value);
+                    break;
+                case "--threads":
+                    threads = parseInt(option, value);
+                    if (threads < 1) {
+                        throw new IllegalArgumentException("Threads must be at least 1: " + value);
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + option);
+            }
+        }
+
+        if (seeds.isEmpty()) {
+            throw new IllegalArgumentException("No seeds given");
+        }
+        if (types.isEmpty()) {
+            for (BiomeGenerator.WorldType type : BiomeGenerator.WorldType.values()) {
+                types.add(type);
+            }
+        }
+    }
+
+    /**
+     * Generate every seed in every type and write the index
+     */
+    void run() throws IOException {
+        if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+            throw new IOException("Could not create " + outputDirectory);
+        }
+        // Loaded once; the compiled tables are shared by all workers
+        BiomeRules rules = BiomeRules.loadDefault();
+        ThreadLocal<BiomeGenerator> generators = ThreadLocal.withInitial(() -> {
+            BiomeGenerator generator = new BiomeGenerator();
+            generator.setRules(rules);
+            generator.setParallelism(1);
+            generator.setSeaLevel(seaLevel);
+            return generator;
+        });
+
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        List<Future<String>> worlds = new ArrayList<>(seeds.size() * types.size());
+        long start = System.nanoTime();
+        try {
+            for (int seed : seeds) {
+                for (BiomeGenerator.WorldType type : types) {
+                    worlds.add(workers.submit(() -> generate(generators.get(), seed, type)));
+                }
+            }
+
+            // Index lines in submission order, whatever order workers finish in
+            try (PrintWriter index = new PrintWriter(new File(outputDirectory, "index.tsv"), "UTF-8")) {
+                index.println("seed\ttype\twidth\theight\tversion\tland\tfile");
+                for (int i = 0; i < worlds.size(); i++) {
+                    index.println(worlds.get(i).get());
+                    if ((i + 1) % REPORT_INTERVAL == 0) {
+                        report(i + 1, worlds.size(), start);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IllegalStateException(cause.getMessage(), cause);
+        } finally {
+            workers.shutdownNow();
+        }
+        report(worlds.size(), worlds.size(), start);
+    }
+
+    /**
+     * Generate and write one world; returns its index line
+     */
+    private String generate(BiomeGenerator generator, int seed, BiomeGenerator.WorldType type)
+            throws IOException {
+        String name = type.name().toLowerCase(Locale.ROOT) + "-" + seed;
+        generator.setSeed(seed);
+        File file;
+        float land;
+        if (mapped) {
+            // The tiles go to the file as they are generated
+            file = new File(outputDirectory, name + ".map");
+            try (MappedTileStorage storage = MappedTileStorage.create(file, width, height, BiomeType.DEEP_WATER)) {
+                SquareGrid grid = new SquareGrid(storage);
+                generator.generateWorld(grid, type);
+                land = landFraction(grid);
+                writePreview(grid, name);
+            }
+        } else {
+            file = new File(outputDirectory, name + ".rle");
+            SquareGrid grid = new SquareGrid(SquareGrid.createStorage(width, height, BiomeType.DEEP_WATER));
+            generator.generateWorld(grid, type);
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(file)))) {
+                RleTileStorage.encode(grid.getStorage()).writeTo(out);
+            }
+            land = landFraction(grid);
+            writePreview(grid, name);
+        }
+
+        return seed + "\t" + type + "\t" + width + "\t" + height + "\t" + BiomeGenerator.VERSION +
+            "\t" + String.format(Locale.ROOT, "%.4f", land) + "\t" + file.getName();
+    }
+
+    private void writePreview(SquareGrid grid, String name) throws IOException {
+        if (previews) {
+            WorldImage.writePng(grid, new File(outputDirectory, name + ".png"));
+        }
+    }
+
+    /**
+     * Share of tiles that are neither shallow nor deep water
+     */
+    private static float landFraction(SquareGrid grid) {
+        BiomeHistogram histogram = grid.getHistogram();
+        return 1 - histogram.getFraction(BiomeType.SHALLOW_WATER) - histogram.getFraction(BiomeType.DEEP_WATER);
+    }
+
+    private static void report(int done, int total, long start) {
+        float seconds = (System.nanoTime() - start) / 1e9f;
+        System.out.println(String.format(Locale.ROOT, "%d/%d worlds in %.1f s (%.0f per minute)",
+            done, total, seconds, done / Math.max(seconds, 1e-3f) * 60));
+    }
+
+    private void parseSeeds(String value) {
+        for (String part : value.split(",")) {
+            int dash = part.indexOf('-', 1);
+            if (dash < 0) {
+                addSeed(parseInt("--seeds", part.trim()));
+                continue;
+            }
+            int from = parseInt("--seeds", part.substring(0, dash).trim());
+            int to = parseInt("--seeds", part.substring(dash + 1).trim());
+            if (to < from) {
+                throw new IllegalArgumentException("Empty seed range: " + part);
+            }
+            for (long seed = from; seed <= to; seed++) {
+                addSeed((int) seed);
+            }
+        }
+    }
+
+    private void addSeed(int seed) {
+        // The generator picks a random seed for anything below 1
+        if (seed < 1) {
+            throw new IllegalArgumentException("Seeds must be positive: " + seed);
+        }
+        seeds.add(seed);
+    }
+
+    private void parseTypes(String value) {
+        if (value.equalsIgnoreCase("all")) {
+            types.clear();
+            return;
+        }
+        for (String name : value.split(",")) {
+            try {
+                types.add(BiomeGenerator.WorldType.valueOf(name.trim().toUpperCase(Locale.ROOT)));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown world type: " + name);
+            }
+        }
+    }
+
+    private void parseSize(String value) {
+        int x = value.indexOf('x');
+        if (x < 0) {
+            throw new IllegalArgumentException("Size must be <width>x<height>: " + value);
+        }
+        width = parseInt("--size", value.substring(0, x));
+        height = parseInt("--size", value.substring(x + 1));
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException("Invalid size: " + value);
+        }
+    }
+
+    private static int parseInt(String option, String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number for " + option + ": " + value);
+        }
+    }
+
+    private static float parseFloat(String option, String value) {
+        try {
+            return Float.parseFloat(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number for " + option + ": " + value);
+        }
+    }
+}
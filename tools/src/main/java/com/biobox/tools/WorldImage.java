@@ -0,0 +1,196 @@
+package com.biobox.tools;
+
+import com.badlogic.gdx.graphics.Color;
+import com.biobox.core.BiomeType;
+import com.biobox.core.SquareGrid;
+
+import javax.imageio.ImageIO;
+import java.awt.Image;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.util.Vector;
+
+/**
+ * PNG previews of worlds, one pixel per tile in the biome's base colour.
+ * Drawn on the CPU with ImageIO rather than through a Pixmap or
+ * {@link com.biobox.core.SquareTileRenderer}'s texture, so no GL context or
+ * libGDX natives are needed.
+ *
+ * The image is never held whole: ImageIO's PNG writer asks for it a row at
+ * a time, and each row is drawn from the grid as it is asked for, so
+ * previews of mapped worlds larger than the heap can be written too.
+ */
+final class WorldImage {
+    // Base colour per biome ordinal, packed RGB
+    private static final int[] COLORS;
+
+    static {
+        BiomeType[] biomes = BiomeType.values();
+        COLORS = new int[biomes.length];
+        for (BiomeType biome : biomes) {
+            COLORS[biome.ordinal()] = Color.rgb888(biome.getBaseColor());
+        }
+    }
+
+    private WorldImage() {
+    }
+
+    static void writePng(SquareGrid grid, File file) throws IOException {
+        if (!ImageIO.write(new GridImage(grid), "png", file)) {
+            throw new IOException("No PNG writer available for " + file);
+        }
+    }
+
+    /**
+     * A grid seen as an image made of one-row tiles, each drawn only when
+     * it is asked for
+     */
+    private static final class GridImage implements RenderedImage {
+        private static final ColorModel COLOR_MODEL = new DirectColorModel(24, 0xFF0000, 0xFF00, 0xFF);
+
+        private final SquareGrid grid;
+        private final SampleModel rowModel;
+
+        GridImage(SquareGrid grid) {
+            this.grid = grid;
+            this.rowModel = COLOR_MODEL.createCompatibleSampleModel(grid.getWidth(), 1);
+        }
+
+        @Override
+        public Raster getData(Rectangle rect) {
+            Rectangle area = rect.intersection(new Rectangle(0, 0, grid.getWidth(), grid.getHeight()));
+            WritableRaster raster = Raster.createWritableRaster(
+                rowModel.createCompatibleSampleModel(area.width, area.height), new Point(area.x, area.y));
+            int[] pixels = ((DataBufferInt) raster.getDataBuffer()).getData();
+            int i = 0;
+            for (int y = area.y; y < area.y + area.height; y++) {
+                // Whole runs at a time, as the renderers do
+                int x = area.x;
+                while (x < area.x + area.width) {
+                    int runEnd = Math.min(grid.getRunEnd(x, y), area.x + area.width);
+                    int color = COLORS[grid.getOrdinal(x, y)];
+                    for (; x < runEnd; x++) {
+                        pixels[i++] = color;
+                    }
+                }
+            }
+            return raster;
+        }
+
+        @Override
+        public Raster getData() {
+            return getData(new Rectangle(0, 0, grid.getWidth(), grid.getHeight()));
+        }
+
+        @Override
+        public Raster getTile(int tileX, int tileY) {
+            return getData(new Rectangle(0, tileY, grid.getWidth(), 1));
+        }
+
+        @Override
+        public WritableRaster copyData(WritableRaster raster) {
+            if (raster == null) {
+                raster = COLOR_MODEL.createCompatibleWritableRaster(grid.getWidth(), grid.getHeight());
+            }
+            Rectangle bounds = raster.getBounds();
+            for (int y = bounds.y; y < bounds.y + bounds.height; y++) {
+                raster.setRect(getData(new Rectangle(bounds.x, y, bounds.width, 1)));
+            }
+            return raster;
+        }
+
+        @Override
+        public Vector<RenderedImage> getSources() {
+            return null;
+        }
+
+        @Override
+        public Object getProperty(String name) {
+            return Image.UndefinedProperty;
+        }
+
+        @Override
+        public String[] getPropertyNames() {
+            return null;
+        }
+
+        @Override
+        public ColorModel getColorModel() {
+            return COLOR_MODEL;
+        }
+
+        @Override
+        public SampleModel getSampleModel() {
+            return rowModel;
+        }
+
+        @Override
+        public int getWidth() {
+            return grid.getWidth();
+        }
+
+        @Override
+        public int getHeight() {
+            return grid.getHeight();
+        }
+
+        @Override
+        public int getMinX() {
+            return 0;
+        }
+
+        @Override
+        public int getMinY() {
+            return 0;
+        }
+
+        @Override
+        public int getNumXTiles() {
+            return 1;
+        }
+
+        @Override
+        public int getNumYTiles() {
+            return grid.getHeight();
+        }
+
+        @Override
+        public int getMinTileX() {
+            return 0;
+        }
+
+        @Override
+        public int getMinTileY() {
+            return 0;
+        }
+
+        @Override
+        public int getTileWidth() {
+            return grid.getWidth();
+        }
+
+        @Override
+        public int getTileHeight() {
+            return 1;
+        }
+
+        @Override
+        public int getTileGridXOffset() {
+            return 0;
+        }
+
+        @Override
+        public int getTileGridYOffset() {
+            return 0;
+        }
+    }
+}